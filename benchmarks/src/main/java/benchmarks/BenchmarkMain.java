@@ -0,0 +1,52 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.ProfilerFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Runs the JMH benchmarks, taking the usual JMH command line options but
+ * writing results as JSON to jmh-result.json unless -rf/-rff say otherwise
+ * <p>
+ * {@code java -jar benchmarks/target/benchmarks-test-dependencies.jar [jmh options] [benchmark regex]}
+ * <p>
+ * The options that only print something (-h, -l, -lp, -lprof, -lrf) do
+ * that and exit without running anything, as with JMH's own launcher.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        var commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldListProfilers()) {
+            ProfilerFactory.listProfilers(System.out);
+            return;
+        }
+        if (commandLine.shouldListResultFormats()) {
+            System.out.println("Available formats: " + Arrays.toString(ResultFormatType.values()));
+            return;
+        }
+
+        var options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result("jmh-result.json");
+        }
+        var runner = new Runner(options.build());
+        if (commandLine.shouldList()) {
+            runner.list();
+        } else if (commandLine.shouldListWithParams()) {
+            runner.listWithParams(commandLine);
+        } else {
+            runner.run();
+        }
+    }
+}
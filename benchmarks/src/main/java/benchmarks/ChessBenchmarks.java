@@ -0,0 +1,108 @@
+package benchmarks;
+
+import chess.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Move generation and game status checks on a few representative positions
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChessBenchmarks {
+
+    @Param({"start", "middlegame", "checkmate"})
+    public String position;
+
+    private ChessGame game;
+    private ChessPosition[] pieces;
+
+    @Setup
+    public void setup() {
+        String fen = switch (position) {
+            case "start" -> Perft.START_FEN;
+            case "middlegame" -> "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10";
+            case "checkmate" -> "rnb1kbnr/pppp1ppp/8/4p3/6Pq/5P2/PPPPP2P/RNBQKBNR w KQkq - 1 3";
+            default -> throw new IllegalArgumentException(position);
+        };
+        game = ChessGame.fromFen(fen);
+
+        var positions = new java.util.ArrayList<ChessPosition>();
+        for (int row = 1; row < 9; row++) {
+            for (int col = 1; col < 9; col++) {
+                var square = new ChessPosition(row, col);
+                var piece = game.getBoard().getPiece(square);
+                if (piece != null && piece.getTeamColor() == game.getTeamTurn()) {
+                    positions.add(square);
+                }
+            }
+        }
+        pieces = positions.toArray(new ChessPosition[0]);
+    }
+
+    @Benchmark
+    public void pieceMoves(Blackhole blackhole) {
+        ChessBoard board = game.getBoard();
+        for (ChessPosition square : pieces) {
+            blackhole.consume(board.getPiece(square).pieceMoves(board, square));
+        }
+    }
+
+    @Benchmark
+    public void validMoves(Blackhole blackhole) {
+        for (ChessPosition square : pieces) {
+            blackhole.consume(game.validMoves(square));
+        }
+    }
+
+    @Benchmark
+    public boolean isInCheck() {
+        return game.isInCheck(game.getTeamTurn());
+    }
+
+    @Benchmark
+    public boolean isInCheckmate(Uncached uncached) {
+        return uncached.game.isInCheckmate(uncached.game.getTeamTurn());
+    }
+
+    @Benchmark
+    public boolean isInStalemate(Uncached uncached) {
+        return uncached.game.isInStalemate(uncached.game.getTeamTurn());
+    }
+
+    @Benchmark
+    public ChessGame.GameStatus gameStatus(Uncached uncached) {
+        return uncached.game.getStatus();
+    }
+
+    /**
+     * A status lookup the game has already worked out
+     */
+    @Benchmark
+    public ChessGame.GameStatus gameStatusCached() {
+        return game.getStatus();
+    }
+
+    /**
+     * The benchmark's game with its cached status dropped before every call,
+     * so the status benchmarks time working the status out rather than the cache
+     */
+    @State(Scope.Thread)
+    public static class Uncached {
+        ChessGame game;
+
+        @Setup(Level.Invocation)
+        public void dropCachedStatus(ChessBenchmarks benchmarks) {
+            game = benchmarks.game;
+            // Setting the same board clears the cache; the move counters it
+            // also resets don't change the status of these positions
+            game.setBoard(game.getBoard());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package benchmarks;
+
+import dataaccess.MemoryDataAccess;
+import model.GameData;
+import model.UserData;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.openjdk.jmh.annotations.*;
+import reqres.NewGameRequest;
+import server.ChessSession;
+import server.SessionManager;
+import websocket.messages.ServerMessage;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocket fan-out and in-memory data access on the server
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ServerBenchmarks {
+
+    private static final int GAMES = 100;
+
+    @Param({"100", "1000"})
+    public int connectedSessions;
+
+    private SessionManager sessions;
+    private ServerMessage loadGame;
+    private ServerMessage notification;
+
+    private MemoryDataAccess dataAccess;
+    private String authToken;
+    private int gameID;
+
+    @Setup
+    public void setup() {
+        sessions = new SessionManager(64, ChessSession.OverflowPolicy.COALESCE_LOAD_GAME);
+        for (int i = 0; i < connectedSessions; i++) {
+            sessions.add("user" + i, stubSession(), i % GAMES);
+        }
+        loadGame = ServerMessage.loadGame(new GameData(0, "user0", "user100", "game", new chess.ChessGame()));
+        notification = ServerMessage.notification("user0 has joined the game playing white");
+
+        dataAccess = new MemoryDataAccess();
+        authToken = dataAccess.addUser(new UserData("user", "password", "user@mail.com")).authToken();
+        for (int i = 0; i < GAMES; i++) {
+            gameID = dataAccess.addGame(new NewGameRequest("game" + i));
+        }
+    }
+
+    @Benchmark
+    public void broadcastLoadGame() throws IOException {
+        sessions.broadcast(null, loadGame, 0);
+    }
+
+    @Benchmark
+    public void broadcastNotification() throws IOException {
+        sessions.broadcast("user0", notification, 0);
+    }
+
+    @Benchmark
+    public String findUser() {
+        return dataAccess.findUser(authToken);
+    }
+
+    @Benchmark
+    public GameData findGame() {
+        return dataAccess.findGame(gameID);
+    }
+
+    @Benchmark
+    public List<GameData> listGames() {
+        return dataAccess.listGames();
+    }
+
+    @Benchmark
+    public String createAndDeleteAuth() {
+        String token = dataAccess.createAuth("user").authToken();
+        dataAccess.deleteAuth(token);
+        return token;
+    }
+
+    /**
+     * An always-open session whose remote endpoint discards everything sent
+     * to it, completing asynchronous writes at once
+     */
+    private static Session stubSession() {
+        var remote = (RemoteEndpoint) Proxy.newProxyInstance(RemoteEndpoint.class.getClassLoader(),
+                new Class<?>[]{RemoteEndpoint.class}, (proxy, method, args) -> {
+                    if (args != null && args.length == 2 && args[1] instanceof WriteCallback callback) {
+                        callback.writeSuccess();
+                    }
+                    return defaultValue(method.getReturnType());
+                });
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[]{Session.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "isOpen" -> true;
+                    case "getRemote" -> remote;
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> defaultValue(method.getReturnType());
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -42,11 +42,7 @@ public class GameplayClient {
 
         try {
             ws = new WSClient(notificationHandler);
-            if (observer) {
-                ws.observe(username);
-            } else {
-                ws.joinGame(username, color.toString());
-            }
+            ws.connect(authToken, gameData.gameID(), true);
 
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -76,14 +72,16 @@ public class GameplayClient {
         String numbers = Objects.equals(color, ChessGame.TeamColor.WHITE) ? "87654321" : "12345678";
         StringBuilder pieces = new StringBuilder();
         StringBuilder board = new StringBuilder();
+        ChessGame latest = ws.getGame();
+        ChessGame game = latest != null ? latest : gameData.game();
 
         for (int i = 1; i < 9; i++) {
             for (int j = 1; j < 9; j++) {
                 String pieceLetter = "";
-                if (gameData.game().getBoard().getPiece(new ChessPosition(i, j)) == null) {
+                ChessPiece piece = game.getBoard().getPiece(ChessPosition.of(i, j));
+                if (piece == null) {
                     pieceLetter = " ";
                 } else {
-                    ChessPiece piece = gameData.game().getBoard().getPiece(new ChessPosition(i, j));
                     if (piece.getPieceType().equals(ChessPiece.PieceType.KING)) {
                         pieceLetter = "k";
                     } else if (piece.getPieceType().equals(ChessPiece.PieceType.QUEEN)) {
@@ -1,36 +1,130 @@
 package client;
 
+import chess.ChessGame;
 import chess.ChessMove;
+import chess.GameCodec;
+import chess.InvalidMoveException;
+import chess.Moves;
 import com.google.gson.Gson;
+import websocket.BinaryProtocol;
 import websocket.commands.UserGameCommand;
 import websocket.messages.ServerMessage;
 
 import javax.websocket.*;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Scanner;
 
 public class WSClient extends Endpoint {
 
     public Session session;
     public NotificationHandler notificationHandler;
+    // The client's copy of the game, kept current from LOAD_GAME and MOVE_MADE messages
+    private volatile ChessGame game;
+    private String authToken;
+    private int gameID;
+    // True to send commands in the BinaryProtocol form, which the server answers in kind
+    private final boolean binary;
 
     public WSClient(NotificationHandler notificationHandler) throws Exception {
+        this(notificationHandler, false);
+    }
+
+    /**
+     * @param binary true to speak {@link BinaryProtocol} instead of JSON
+     */
+    public WSClient(NotificationHandler notificationHandler, boolean binary) throws Exception {
         URI uri = new URI("ws://localhost:8080/ws");
         WebSocketContainer container = ContainerProvider.getWebSocketContainer();
         this.session = container.connectToServer(this, uri);
         this.notificationHandler = notificationHandler;
+        this.binary = binary;
 
         this.session.addMessageHandler(new MessageHandler.Whole<String>() {
             public void onMessage(String message) {
                 System.out.println("Received message");
                 System.out.println(message);
-                ServerMessage notif = new Gson().fromJson(message, ServerMessage.class);
-                notificationHandler.notify(notif);
+                received(new Gson().fromJson(message, ServerMessage.class));
+            }
+        });
+        this.session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+            public void onMessage(ByteBuffer message) {
+                received(BinaryProtocol.decodeMessage(message));
             }
         });
     }
 
+    private void received(ServerMessage notif) {
+        switch (notif.getServerMessageType()) {
+            case LOAD_GAME -> game = notif.getGame().game();
+            case MOVE_MADE -> applyMove(notif);
+            default -> { }
+        }
+        notificationHandler.notify(notif);
+    }
+
+    private void send(UserGameCommand command) throws IOException {
+        if (binary) {
+            this.session.getBasicRemote().sendBinary(BinaryProtocol.encode(command));
+        } else {
+            this.session.getBasicRemote().sendText(new Gson().toJson(command));
+        }
+    }
+
+    /**
+     * Connects to a game
+     *
+     * @param deltas true to be sent only the move after each move, instead of the whole game
+     */
+    public void connect(String authToken, int gameID, boolean deltas) throws IOException {
+        this.authToken = authToken;
+        this.gameID = gameID;
+        send(new UserGameCommand(UserGameCommand.CommandType.CONNECT, authToken, gameID, null, deltas));
+    }
+
+    /**
+     * Applies a move to the local game, asking for the whole game again if
+     * the move doesn't follow on from it or leads somewhere else than the
+     * server's game did
+     * <p>
+     * The move is made on a copy, which replaces the game only once it
+     * checks out, so the REPL thread drawing the game never sees it half made
+     * or out of sync.
+     */
+    private void applyMove(ServerMessage delta) {
+        ChessGame current = game;
+        if (current != null && current.getPly() + 1 == delta.getPly()) {
+            ChessGame next = GameCodec.decode(GameCodec.encode(current));
+            try {
+                next.makeMove(Moves.toChessMove(delta.getMove()));
+                if (next.getZobristKey() == delta.getHash()) {
+                    game = next;
+                    return;
+                }
+            } catch (InvalidMoveException e) {
+                // Out of sync; fall through to the resync
+            }
+        }
+        game = null;
+        resync();
+    }
+
+    private void resync() {
+        try {
+            send(new UserGameCommand(UserGameCommand.CommandType.RESYNC, authToken, gameID));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the latest game received from the server, or null while waiting for it
+     */
+    public ChessGame getGame() {
+        return game;
+    }
+
     public void joinGame(String username, String color) throws Exception {
         this.session.getBasicRemote().sendText(username + " has joined the game playing " + color);
     }
@@ -46,10 +140,8 @@ public class WSClient extends Endpoint {
                 gameID,
                 move
         );
-
-        String json = new Gson().toJson(command);
         try {
-            this.session.getBasicRemote().sendText(json);
+            send(command);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -63,9 +155,7 @@ public class WSClient extends Endpoint {
 
     public void resign(String authtoken, int gameID) {
         try {
-            UserGameCommand command = new UserGameCommand(UserGameCommand.CommandType.RESIGN, authtoken, gameID);
-            String json = new Gson().toJson(command);
-            this.session.getBasicRemote().sendText(json);
+            send(new UserGameCommand(UserGameCommand.CommandType.RESIGN, authtoken, gameID));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,133 @@
+package dataaccess;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, in-process cache of auth token to username, so checking a token
+ * doesn't cost a query every time
+ * <p>
+ * Entries expire after a fixed time to live, which bounds how long a token
+ * deleted by another server keeps working here; tokens deleted through this
+ * process are invalidated at once. When the cache is full the least recently
+ * used entry goes. Only tokens that exist are cached, so a token created
+ * elsewhere is never hidden by an earlier miss.
+ * <p>
+ * A lookup that misses takes a {@link #generation} before querying and hands
+ * it back to {@link #put}, which drops the result if anything was invalidated
+ * meanwhile, so a token deleted during the query isn't cached again.
+ */
+public class AuthCache {
+
+    /**
+     * Cache settings, read from the db.authCache.* properties
+     *
+     * @param maxSize   most tokens cached at once, 0 to turn the cache off
+     * @param ttlMillis how long a token is trusted before it is checked again
+     */
+    public record Settings(int maxSize, long ttlMillis) {
+    }
+
+    /**
+     * A snapshot of the cache's counters
+     */
+    public record Stats(int size, long hits, long misses, long evictions, long expirations, long invalidations) {
+    }
+
+    private record Entry(String username, long expiresAt) {
+    }
+
+    private final Settings settings;
+    // In access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    public AuthCache(Settings settings) {
+        if (settings.maxSize() < 0 || settings.ttlMillis() < 0) {
+            throw new IllegalArgumentException("Auth cache settings must not be negative");
+        }
+        this.settings = settings;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > settings.maxSize()) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the username for a token, or null if it isn't cached and must be looked up
+     */
+    public synchronized String get(String token) {
+        Entry entry = entries.get(token);
+        if (entry != null && entry.expiresAt() - System.nanoTime() <= 0) {
+            entries.remove(token);
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.username();
+    }
+
+    /**
+     * @return a stamp to pass to {@link #put} for a lookup about to start
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches a token found by a lookup that started at the given generation
+     */
+    public synchronized void put(String token, String username, long generation) {
+        if (settings.maxSize() == 0 || username == null || generation != this.generation) {
+            return;
+        }
+        entries.put(token, new Entry(username, System.nanoTime() + settings.ttlMillis() * 1_000_000L));
+    }
+
+    /**
+     * Forgets a token, once it has been deleted
+     */
+    public synchronized void invalidate(String token) {
+        generation++;
+        if (entries.remove(token) != null) {
+            invalidations++;
+        }
+    }
+
+    /**
+     * Forgets every token, once the auth table has been cleared
+     */
+    public synchronized void clear() {
+        generation++;
+        invalidations += entries.size();
+        entries.clear();
+    }
+
+    public synchronized Stats stats() {
+        // Count what has expired unread as expired rather than as still cached
+        long now = System.nanoTime();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiresAt() - now <= 0) {
+                it.remove();
+                expirations++;
+            }
+        }
+        return new Stats(entries.size(), hits, misses, evictions, expirations, invalidations);
+    }
+}
@@ -0,0 +1,385 @@
+package dataaccess;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of database connections
+ * <p>
+ * {@link #borrow} hands out a proxy of a pooled connection whose
+ * {@code close} puts it back instead of closing it, so callers keep using
+ * try-with-resources exactly as with a connection of their own. A connection
+ * that has sat idle for a while is checked before it is handed out, and a
+ * background thread closes connections idle past the timeout (keeping the
+ * minimum open) and reports connections borrowed for longer than the leak
+ * threshold.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    /**
+     * Pool settings, read from the db.pool.* properties
+     *
+     * @param minSize          connections kept open even when idle
+     * @param maxSize          most connections open at once
+     * @param idleTimeoutMillis how long a connection beyond the minimum may sit idle
+     * @param acquireTimeoutMillis how long {@link #borrow} waits when every connection is in use
+     * @param validationQuery  query run to check a connection, or null to use {@link Connection#isValid}
+     * @param leakDetectionMillis how long a connection may be borrowed before it is reported, 0 for never
+     */
+    public record Settings(int minSize, int maxSize, long idleTimeoutMillis, long acquireTimeoutMillis,
+                           String validationQuery, long leakDetectionMillis) {
+    }
+
+    /**
+     * A snapshot of the pool's counters
+     */
+    public record Stats(int open, int idle, int active, int waiting,
+                        long borrowed, long created, long timeouts, long leaks) {
+    }
+
+    // Connections idle for less than this are trusted without a validation round trip
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 500;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final String catalog;
+    private final Settings settings;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<Idle> idle = new ArrayDeque<>();
+    private final Set<Lease> leased = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private int open;
+    private int waiting;
+    private boolean closed;
+
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+
+    private record Idle(Connection connection, long since) {
+    }
+
+    public ConnectionPool(String url, String username, String password, String catalog, Settings settings) {
+        if (settings.minSize() < 0 || settings.maxSize() < 1 || settings.minSize() > settings.maxSize()) {
+            throw new IllegalArgumentException("Pool size must satisfy 0 <= min <= max and max >= 1");
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.catalog = catalog;
+        this.settings = settings;
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(settings.idleTimeoutMillis(),
+                settings.leakDetectionMillis() > 0 ? settings.leakDetectionMillis() : Long.MAX_VALUE) / 2);
+        housekeeper.scheduleWithFixedDelay(this::houseKeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes a connection from the pool, opening one if none is idle and the
+     * pool is below its maximum, or otherwise waiting for one to come back
+     *
+     * @return a connection that returns to the pool when closed
+     */
+    public Connection borrow() throws DataAccessException {
+        Connection connection = null;
+        while (connection == null) {
+            Idle candidate = takeIdleOrReserve();
+            if (candidate == null) {
+                connection = openConnection();
+            } else if (isUsable(candidate)) {
+                connection = candidate.connection();
+            } else {
+                discard(candidate.connection());
+            }
+        }
+        borrowed.incrementAndGet();
+        Lease lease = new Lease(connection);
+        leased.add(lease);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, lease);
+    }
+
+    /**
+     * @return an idle connection, or null once a slot has been reserved for a new one
+     */
+    private Idle takeIdleOrReserve() throws DataAccessException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(settings.acquireTimeoutMillis());
+            while (true) {
+                if (closed) {
+                    throw new DataAccessException("connection pool is closed");
+                }
+                if (!idle.isEmpty()) {
+                    return idle.pollFirst();
+                }
+                if (open < settings.maxSize()) {
+                    open++;
+                    return null;
+                }
+                if (remaining <= 0) {
+                    timeouts.incrementAndGet();
+                    throw new DataAccessException("timed out waiting for a database connection");
+                }
+                waiting++;
+                try {
+                    remaining = available.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DataAccessException("interrupted waiting for a database connection", e);
+                } finally {
+                    waiting--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Connection openConnection() throws DataAccessException {
+        try {
+            Connection connection = DriverManager.getConnection(url, username, password);
+            connection.setCatalog(catalog);
+            created.incrementAndGet();
+            return connection;
+        } catch (SQLException ex) {
+            release();
+            throw new DataAccessException("failed to get connection", ex);
+        }
+    }
+
+    private boolean isUsable(Idle candidate) {
+        if (System.currentTimeMillis() - candidate.since() < VALIDATE_AFTER_IDLE_MILLIS) {
+            return true;
+        }
+        try {
+            if (settings.validationQuery() == null) {
+                return candidate.connection().isValid(5);
+            }
+            try (var statement = candidate.connection().createStatement()) {
+                statement.execute(settings.validationQuery());
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void giveBack(Connection connection) {
+        boolean healthy;
+        try {
+            healthy = !connection.isClosed();
+            if (healthy && !connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            healthy = false;
+        }
+        if (!healthy) {
+            discard(connection);
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (closed) {
+                open--;
+                closeQuietly(connection);
+                return;
+            }
+            idle.addFirst(new Idle(connection, System.currentTimeMillis()));
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void discard(Connection connection) {
+        closeQuietly(connection);
+        release();
+    }
+
+    // Frees the slot of a connection that is gone
+    private void release() {
+        lock.lock();
+        try {
+            open--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void houseKeep() {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            // The longest idle connections sit at the end of the deque
+            Iterator<Idle> oldestFirst = idle.descendingIterator();
+            while (oldestFirst.hasNext() && open > settings.minSize()) {
+                Idle candidate = oldestFirst.next();
+                if (now - candidate.since() < settings.idleTimeoutMillis()) {
+                    break;
+                }
+                oldestFirst.remove();
+                open--;
+                closeQuietly(candidate.connection());
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (settings.leakDetectionMillis() > 0) {
+            for (Lease lease : leased) {
+                if (!lease.reported && now - lease.borrowedAt >= settings.leakDetectionMillis()) {
+                    lease.reported = true;
+                    leaks.incrementAndGet();
+                    var warning = new IllegalStateException("Database connection borrowed "
+                            + (now - lease.borrowedAt) + " ms ago has not been closed; borrowed here:");
+                    warning.setStackTrace(lease.borrowSite.getStackTrace());
+                    warning.printStackTrace();
+                }
+            }
+        }
+
+        fillToMinimum();
+    }
+
+    private void fillToMinimum() {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || open >= settings.minSize()) {
+                    return;
+                }
+                open++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                giveBack(openConnection());
+            } catch (DataAccessException e) {
+                // The database may not exist yet; try again on the next run
+                return;
+            }
+        }
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(open, idle.size(), open - idle.size(), waiting,
+                    borrowed.get(), created.get(), timeouts.get(), leaks.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes every idle connection and stops handing out new ones; borrowed
+     * connections are closed as they come back
+     */
+    @Override
+    public void close() {
+        housekeeper.shutdownNow();
+        lock.lock();
+        try {
+            closed = true;
+            for (Idle candidate : idle) {
+                closeQuietly(candidate.connection());
+            }
+            open -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Already broken, which is why it's being closed
+        }
+    }
+
+    /**
+     * One borrowing of a connection, which passes every call through to it
+     * except close
+     */
+    private class Lease implements InvocationHandler {
+        private final Connection connection;
+        private final long borrowedAt = System.currentTimeMillis();
+        private final Throwable borrowSite;
+        private volatile boolean returned;
+        private volatile boolean reported;
+
+        Lease(Connection connection) {
+            this.connection = connection;
+            borrowSite = settings.leakDetectionMillis() > 0 ? new Throwable() : null;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!returned) {
+                        returned = true;
+                        leased.remove(this);
+                        giveBack(connection);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return returned || connection.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Pooled " + connection;
+                }
+                default -> {
+                    if (returned) {
+                        throw new SQLException("Connection has been returned to the pool");
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -10,6 +10,19 @@ public class DatabaseManager {
     private static String dbUsername;
     private static String dbPassword;
     private static String connectionUrl;
+    private static String poolConnectionUrl;
+    private static ConnectionPool pool;
+    private static AuthCache authCache;
+    /**
+     * True to store games with {@link chess.GameCodec} rather than as JSON,
+     * set by the optional db.gameFormat property ("json" or "binary")
+     */
+    static boolean binaryGames;
+    /**
+     * Plies between full snapshots of a game, set by the optional
+     * db.snapshotInterval property; the moves in between are only logged
+     */
+    static int snapshotInterval;
 
     /*
      * Load the database information for the db.properties file.
@@ -32,10 +45,11 @@ public class DatabaseManager {
     }
 
     /**
-     * Create a connection to the database and sets the catalog based upon the
-     * properties specified in db.properties. Connections to the database should
-     * be short-lived, and you must close the connection when you are done with it.
-     * The easiest way to do that is with a try-with-resource block.
+     * Borrow a connection to the database from the pool, with the catalog set
+     * based upon the properties specified in db.properties. Connections to the
+     * database should be short-lived, and you must close the connection when you
+     * are done with it, which returns it to the pool. The easiest way to do that
+     * is with a try-with-resource block.
      * <br/>
      * <code>
      * try (var conn = DatabaseManager.getConnection()) {
@@ -44,14 +58,29 @@ public class DatabaseManager {
      * </code>
      */
     static public Connection getConnection() throws DataAccessException {
-        try {
-            //do not wrap the following line with a try-with-resources
-            var conn = DriverManager.getConnection(connectionUrl, dbUsername, dbPassword);
-            conn.setCatalog(databaseName);
-            return conn;
-        } catch (SQLException ex) {
-            throw new DataAccessException("failed to get connection", ex);
-        }
+        return pool.borrow();
+    }
+
+    /**
+     * @return the connection pool's current counters
+     */
+    static public ConnectionPool.Stats poolStats() {
+        return pool.stats();
+    }
+
+    /**
+     * The cache of auth tokens shared by every {@link SQLDataAccess}, so a
+     * token deleted through one is forgotten by all
+     */
+    static AuthCache authCache() {
+        return authCache;
+    }
+
+    /**
+     * @return the auth token cache's current counters
+     */
+    static public AuthCache.Stats authCacheStats() {
+        return authCache.stats();
     }
 
     static void loadPropertiesFromResources() {
@@ -75,5 +104,38 @@ public class DatabaseManager {
         var host = props.getProperty("db.host");
         var port = Integer.parseInt(props.getProperty("db.port"));
         connectionUrl = String.format("jdbc:mysql://%s:%d", host, port);
+        // Pooled connections live long enough for the driver to cache their
+        // prepared statements, server side, and batches go out as one
+        // multi-row statement instead of a round trip per row
+        poolConnectionUrl = connectionUrl + "?useServerPrepStmts=true&cachePrepStmts=true"
+                + "&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048&rewriteBatchedStatements=true";
+
+        var gameFormat = props.getProperty("db.gameFormat", "json");
+        if (!gameFormat.equals("json") && !gameFormat.equals("binary")) {
+            throw new IllegalArgumentException("db.gameFormat must be json or binary, not " + gameFormat);
+        }
+        binaryGames = gameFormat.equals("binary");
+        snapshotInterval = Integer.parseInt(props.getProperty("db.snapshotInterval", "20"));
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("db.snapshotInterval must be at least 1");
+        }
+
+        var settings = new ConnectionPool.Settings(
+                Integer.parseInt(props.getProperty("db.pool.minSize", "2")),
+                Integer.parseInt(props.getProperty("db.pool.maxSize", "10")),
+                Long.parseLong(props.getProperty("db.pool.idleTimeoutMillis", "600000")),
+                Long.parseLong(props.getProperty("db.pool.acquireTimeoutMillis", "5000")),
+                props.getProperty("db.pool.validationQuery"),
+                Long.parseLong(props.getProperty("db.pool.leakDetectionMillis", "0")));
+        // A fresh cache, so tokens seen under the old settings must be checked again
+        authCache = new AuthCache(new AuthCache.Settings(
+                Integer.parseInt(props.getProperty("db.authCache.maxSize", "10000")),
+                Long.parseLong(props.getProperty("db.authCache.ttlMillis", "60000"))));
+
+        // Connections from the old settings must not outlive them
+        if (pool != null) {
+            pool.close();
+        }
+        pool = new ConnectionPool(poolConnectionUrl, dbUsername, dbPassword, databaseName, settings);
     }
 }
@@ -1,6 +1,10 @@
 package dataaccess;
 
 import chess.ChessGame;
+import chess.ChessMove;
+import chess.GameCodec;
+import chess.InvalidMoveException;
+import chess.Moves;
 import com.google.gson.Gson;
 import model.AuthData;
 import model.GameData;
@@ -8,9 +12,14 @@ import model.UserData;
 import org.mindrot.jbcrypt.BCrypt;
 import reqres.NewGameRequest;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -18,9 +27,7 @@ import static dataaccess.DatabaseManager.*;
 
 public class SQLDataAccess implements DataAccess{
 
-    static {
-        loadPropertiesFromResources();
-    }
+    private static final Gson GSON = new Gson();
 
     public static void configureDatabase(boolean run) throws SQLException {
         if (run != true) {throw new RuntimeException();}
@@ -53,10 +60,21 @@ public class SQLDataAccess implements DataAccess{
                 whiteusername VARCHAR(255) DEFAULT NULL,
                 blackusername VARCHAR(255) DEFAULT NULL,
                 gamename VARCHAR(255) NOT NULL UNIQUE,
-                game longtext NOT NULL,
+                game longtext DEFAULT NULL,
+                gamebin VARBINARY(64) DEFAULT NULL,
+                snapshotply INT NOT NULL DEFAULT 0,
                 PRIMARY KEY (id)
             )""";
 
+            var createMoveTable = """
+            CREATE TABLE  IF NOT EXISTS moves (
+                gameid INT NOT NULL,
+                ply INT NOT NULL,
+                move INT NOT NULL,
+                played TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+                PRIMARY KEY (gameid, ply)
+            )""";
+
 
             try (var createTableStatement = conn.prepareStatement(createUserTable)) {
                 createTableStatement.executeUpdate();
@@ -70,41 +88,92 @@ public class SQLDataAccess implements DataAccess{
                 createTableStatement.executeUpdate();
             }
 
+            try (var createTableStatement = conn.prepareStatement(createMoveTable)) {
+                createTableStatement.executeUpdate();
+            }
+
+            migrateGames(conn);
+
         } catch (DataAccessException e) {
             throw new RuntimeException(e);
         }
 
     }
 
-    public void clear(){
-        try (var conn = getConnection()) {
-            try (var preparedStatement = conn.prepareStatement("TRUNCATE TABLE users")) {
-                preparedStatement.execute();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
+    /**
+     * Brings an existing games table up to date: adds the columns tables made
+     * before them lack, then rewrites every game stored in the other format
+     * into the one db.gameFormat selects, so switching formats in either
+     * direction needs no manual step
+     */
+    private static void migrateGames(Connection conn) throws SQLException {
+        alterIfMissing(conn, "gamebin", "ADD COLUMN gamebin VARBINARY(64) DEFAULT NULL, MODIFY game longtext NULL");
+        alterIfMissing(conn, "snapshotply", "ADD COLUMN snapshotply INT NOT NULL DEFAULT 0");
+
+        String select = binaryGames
+                ? "SELECT id, game, gamebin FROM games WHERE gamebin IS NULL"
+                : "SELECT id, game, gamebin FROM games WHERE game IS NULL";
+        try (var query = conn.prepareStatement(select);
+             var rs = query.executeQuery();
+             var update = conn.prepareStatement("UPDATE games SET game=?, gamebin=? WHERE id=?")) {
+            while (rs.next()) {
+                bindGame(update, 1, readGame(rs));
+                update.setInt(3, rs.getInt("id"));
+                update.addBatch();
             }
-        } catch (SQLException | DataAccessException e) {
-            throw new RuntimeException(e);
+            update.executeBatch();
         }
+    }
 
-        try (var conn = getConnection()) {
-            try (var preparedStatement = conn.prepareStatement("TRUNCATE TABLE auth")) {
-                preparedStatement.execute();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
+    // MySQL has no ADD COLUMN IF NOT EXISTS, so look the column up first
+    private static void alterIfMissing(Connection conn, String column, String alteration) throws SQLException {
+        try (var columns = conn.getMetaData().getColumns(DatabaseManager.databaseName, null, "games", column)) {
+            if (columns.next()) {
+                return;
             }
-        } catch (SQLException | DataAccessException e) {
-            throw new RuntimeException(e);
         }
+        try (var alter = conn.prepareStatement("ALTER TABLE games " + alteration)) {
+            alter.executeUpdate();
+        }
+    }
 
-        try (var conn = getConnection()) {
-            try (var preparedStatement = conn.prepareStatement("TRUNCATE TABLE games")) {
-                preparedStatement.execute();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
+    /**
+     * Reads the game from a row selecting both game columns, whichever of
+     * them holds it
+     */
+    private static ChessGame readGame(ResultSet rs) throws SQLException {
+        byte[] bytes = rs.getBytes("gamebin");
+        if (bytes != null) {
+            return GameCodec.decode(bytes);
+        }
+        return GSON.fromJson(rs.getString("game"), ChessGame.class);
+    }
+
+    /**
+     * Binds a game to the JSON column parameter at index and the binary one
+     * right after it, filling the one db.gameFormat selects and nulling the other
+     */
+    private static void bindGame(PreparedStatement statement, int index, ChessGame game) throws SQLException {
+        if (binaryGames) {
+            statement.setNull(index, java.sql.Types.LONGVARCHAR);
+            statement.setBytes(index + 1, GameCodec.encode(game));
+        } else {
+            statement.setString(index, GSON.toJson(game));
+            statement.setNull(index + 1, java.sql.Types.VARBINARY);
+        }
+    }
+
+    public void clear(){
+        try (var conn = getConnection();
+             var statement = conn.createStatement()) {
+            for (String table : List.of("users", "auth", "games", "moves")) {
+                statement.addBatch("TRUNCATE TABLE " + table);
             }
+            statement.executeBatch();
         } catch (SQLException | DataAccessException e) {
             throw new RuntimeException(e);
+        } finally {
+            authCache().clear();
         }
     }
 
@@ -114,30 +183,23 @@ public class SQLDataAccess implements DataAccess{
 
     public AuthData addUser(UserData user) {
         String hashedPassword = BCrypt.hashpw(user.password(), BCrypt.gensalt());
+        String token = generateToken();
         try (var conn = getConnection()) {
+            conn.setAutoCommit(false);
             try (var preparedStatement = conn.prepareStatement("INSERT INTO users (username, password, email) VALUES (?, ?, ?)")) {
                 preparedStatement.setString(1, user.username());
                 preparedStatement.setString(2, hashedPassword);
                 preparedStatement.setString(3, user.email());
 
                 preparedStatement.executeUpdate();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
             }
-        } catch (SQLException | DataAccessException e) {
-            throw new RuntimeException(e);
-        }
-
-        String token = generateToken();
-        try (var conn = getConnection()) {
             try (var preparedStatement = conn.prepareStatement("INSERT INTO auth (token, username) VALUES (?, ?)")) {
                 preparedStatement.setString(1, token);
                 preparedStatement.setString(2, user.username());
 
                 preparedStatement.executeUpdate();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
             }
+            conn.commit();
         } catch (SQLException | DataAccessException e) {
             throw new RuntimeException(e);
         }
@@ -188,11 +250,38 @@ public class SQLDataAccess implements DataAccess{
         return new AuthData(token, username);
     }
 
+    /**
+     * Creates a token for each user with one batched insert
+     *
+     * @return the new tokens, in the order of the usernames
+     */
+    public List<AuthData> createAuths(List<String> usernames) {
+        List<AuthData> auths = new ArrayList<>(usernames.size());
+
+        try (var conn = getConnection()) {
+            try (var preparedStatement = conn.prepareStatement("INSERT INTO auth (token, username) VALUES (?, ?)")) {
+                for (String username : usernames) {
+                    String token = generateToken();
+                    preparedStatement.setString(1, token);
+                    preparedStatement.setString(2, username);
+                    preparedStatement.addBatch();
+                    auths.add(new AuthData(token, username));
+                }
+                preparedStatement.executeBatch();
+            }
+        } catch (SQLException | DataAccessException e) {
+            throw new RuntimeException(e);
+        }
+
+        return auths;
+    }
+
     public void deleteAuth(String authData) {
         try (var conn = getConnection()) {
             try (var preparedStatement = conn.prepareStatement("DELETE FROM auth WHERE token=?")) {
                 preparedStatement.setString(1, authData);
                 int numAffected = preparedStatement.executeUpdate();
+                authCache().invalidate(authData);
                 if (numAffected == 0) {
                     throw new RuntimeException("No auth token found to delete");
                 }
@@ -206,19 +295,34 @@ public class SQLDataAccess implements DataAccess{
 
     public List<GameData> listGames() {
         List<GameData> gameList = new ArrayList<>();
+        Map<Integer, ChessGame> gamesByID = new HashMap<>();
 
         try (var conn = getConnection()) {
-            try (var preparedStatement = conn.prepareStatement("SELECT id, whiteusername, blackusername, gamename, game FROM games")) {
+            try (var preparedStatement = conn.prepareStatement("SELECT id, whiteusername, blackusername, gamename, game, gamebin FROM games")) {
                 try (var rs = preparedStatement.executeQuery()) {
                     while (rs.next()) {
-                        var json = rs.getString("game");
-                        var game = new Gson().fromJson(json, ChessGame.class);
+                        var game = readGame(rs);
                         var id = rs.getInt("id");
                         var whiteUsername = rs.getString("whiteusername");
                         var blackUsername = rs.getString("blackusername");
                         var name = rs.getString("gamename");
 
                         gameList.add(new GameData(id, whiteUsername, blackUsername, name, game));
+                        gamesByID.put(id, game);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+
+            // Every game's unsnapshotted moves in one query rather than one per game
+            try (var preparedStatement = conn.prepareStatement("""
+                    SELECT m.gameid, m.move FROM moves m JOIN games g ON m.gameid = g.id
+                    WHERE m.ply > g.snapshotply ORDER BY m.gameid, m.ply""")) {
+                try (var rs = preparedStatement.executeQuery()) {
+                    while (rs.next()) {
+                        int id = rs.getInt("gameid");
+                        replayMove(id, gamesByID.get(id), rs.getInt("move"));
                     }
                 }
             } catch (SQLException e) {
@@ -235,11 +339,11 @@ public class SQLDataAccess implements DataAccess{
         int gameID = 0;
 
         try (var conn = getConnection()) {
-            try (var preparedStatement = conn.prepareStatement("INSERT INTO games (gamename, game) VALUES (?, ?)",
+            try (var preparedStatement = conn.prepareStatement("INSERT INTO games (gamename, game, gamebin) VALUES (?, ?, ?)",
                     java.sql.Statement.RETURN_GENERATED_KEYS)) {
                 var game = new ChessGame();
                 preparedStatement.setString(1, request.gameName());
-                preparedStatement.setString(2, new Gson().toJson(game));
+                bindGame(preparedStatement, 2, game);
 
                 preparedStatement.executeUpdate();
 
@@ -259,8 +363,17 @@ public class SQLDataAccess implements DataAccess{
         return gameID;
     }
 
+    /**
+     * @return the user an auth token belongs to, or null if there is no such
+     * token. Tokens found are cached; see {@link AuthCache}.
+     */
     public String findUser(String authToken) {
-        String username = null;
+        AuthCache cache = authCache();
+        String username = cache.get(authToken);
+        if (username != null) {
+            return username;
+        }
+        long generation = cache.generation();
 
         try (var conn = getConnection()) {
             try (var preparedStatement = conn.prepareStatement("SELECT username FROM auth WHERE token=?")) {
@@ -277,6 +390,7 @@ public class SQLDataAccess implements DataAccess{
             throw new RuntimeException(e);
         }
 
+        cache.put(authToken, username, generation);
         return username;
     }
 
@@ -307,25 +421,45 @@ public class SQLDataAccess implements DataAccess{
 
     }
 
+    /**
+     * Loads a game from its latest snapshot, then plays the moves logged since
+     */
     public GameData findGame(int gameID) {
         GameData gameData = null;
+        int snapshotPly = 0;
 
         try (var conn = getConnection()) {
-            try (var preparedStatement = conn.prepareStatement("SELECT whiteusername, blackusername, gamename, game FROM games WHERE id=?")) {
+            try (var preparedStatement = conn.prepareStatement("SELECT whiteusername, blackusername, gamename, game, gamebin, snapshotply FROM games WHERE id=?")) {
                 preparedStatement.setInt(1, gameID);
                 try (var rs = preparedStatement.executeQuery()) {
                     while (rs.next()) {
                         var whiteusername = rs.getString("whiteusername");
                         var blackusername = rs.getString("blackusername");
                         var gamename = rs.getString("gamename");
-                        var game = new Gson().fromJson(rs.getString("game"), ChessGame.class);
+                        var game = readGame(rs);
 
                         gameData = new GameData(gameID, whiteusername, blackusername, gamename, game);
+                        snapshotPly = rs.getInt("snapshotply");
                     }
                 }
             } catch (SQLException e) {
                 throw new RuntimeException(e);
             }
+
+            if (gameData != null) {
+                try (var preparedStatement = conn.prepareStatement(
+                        "SELECT move FROM moves WHERE gameid=? AND ply>? ORDER BY ply")) {
+                    preparedStatement.setInt(1, gameID);
+                    preparedStatement.setInt(2, snapshotPly);
+                    try (var rs = preparedStatement.executeQuery()) {
+                        while (rs.next()) {
+                            replayMove(gameID, gameData.game(), rs.getInt("move"));
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
         } catch (SQLException | DataAccessException e) {
             throw new RuntimeException(e);
         }
@@ -333,20 +467,103 @@ public class SQLDataAccess implements DataAccess{
         return gameData;
     }
 
+    /**
+     * Stores a full snapshot of the game, which replaces any logged moves
+     * when it is next loaded
+     */
     public void saveGame(int gameID, ChessGame updatedGame) {
+        try (var conn = getConnection()) {
+            writeSnapshot(conn, gameID, updatedGame);
+        } catch (SQLException | DataAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Logs a move just made on the game as a single small row. Only every
+     * db.snapshotInterval plies, or when the game is over, is the whole game
+     * written as well.
+     *
+     * @param game the game after the move was made
+     */
+    public void recordMove(int gameID, ChessMove move, ChessGame game) {
+        recordMoves(gameID, List.of(move), game);
+    }
+
+    /**
+     * Saves snapshots of many games with one batched update
+     */
+    public void saveGames(Map<Integer, ChessGame> games) {
         try (var conn = getConnection()) {
             try (var preparedStatement = conn.prepareStatement(
-                    "UPDATE games SET game=? WHERE id=?")) {
-                String json = new Gson().toJson(updatedGame);
-                preparedStatement.setString(1, json);
-                preparedStatement.setInt(2, gameID);
-                preparedStatement.executeUpdate();
+                    "UPDATE games SET game=?, gamebin=?, snapshotply=? WHERE id=?")) {
+                for (var entry : games.entrySet()) {
+                    bindSnapshot(preparedStatement, entry.getKey(), entry.getValue());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+            }
+        } catch (SQLException | DataAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Logs a run of moves just made on a game, such as an imported game or
+     * moves held back to be written together, with one batched insert. The
+     * whole game is written as well if the run reaches a multiple of
+     * db.snapshotInterval plies or the game is over.
+     *
+     * @param moves the moves in the order they were made
+     * @param game  the game after the last of the moves
+     */
+    public void recordMoves(int gameID, List<ChessMove> moves, ChessGame game) {
+        int lastPly = game.getPly();
+        int firstPly = lastPly - moves.size() + 1;
+        boolean snapshot = game.isOver() || lastPly / snapshotInterval > (firstPly - 1) / snapshotInterval;
+
+        try (var conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (var preparedStatement = conn.prepareStatement("INSERT INTO moves (gameid, ply, move) VALUES (?, ?, ?)")) {
+                for (int i = 0; i < moves.size(); i++) {
+                    preparedStatement.setInt(1, gameID);
+                    preparedStatement.setInt(2, firstPly + i);
+                    preparedStatement.setInt(3, Moves.encode(moves.get(i)));
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+            }
+            if (snapshot) {
+                writeSnapshot(conn, gameID, game);
             }
+            conn.commit();
         } catch (SQLException | DataAccessException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static void writeSnapshot(Connection conn, int gameID, ChessGame game) throws SQLException {
+        try (var preparedStatement = conn.prepareStatement(
+                "UPDATE games SET game=?, gamebin=?, snapshotply=? WHERE id=?")) {
+            bindSnapshot(preparedStatement, gameID, game);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private static void bindSnapshot(PreparedStatement statement, int gameID, ChessGame game) throws SQLException {
+        bindGame(statement, 1, game);
+        statement.setInt(3, game.getPly());
+        statement.setInt(4, gameID);
+    }
+
+    private static void replayMove(int gameID, ChessGame game, int move) {
+        try {
+            game.makeMove(Moves.toChessMove(move));
+        } catch (InvalidMoveException e) {
+            throw new RuntimeException("Move log of game " + gameID + " doesn't follow from its snapshot", e);
+        }
+    }
+
     public void removePlayer(int gameID, String color) {
         if (!color.equals("white") && !color.equals("black")) {
             throw new IllegalArgumentException("Invalid color column: " + color);
@@ -0,0 +1,316 @@
+package server;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import chess.GameCodec;
+import dataaccess.SQLDataAccess;
+import model.GameData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The live games that have players or observers connected, held in memory so
+ * a move is made without reading the game from the database first
+ * <p>
+ * Moves made on a live game are written behind: a background thread logs
+ * every move made since its last run in one batch per game, at most a flush
+ * interval after the move was made. {@link #close} writes whatever is left,
+ * and a game is also written out as soon as its last session lets go of it.
+ * The database can lag the live game by up to one interval, which only the
+ * HTTP game list sees.
+ * <p>
+ * A write that fails is kept and tried again on the next run. Its moves may
+ * or may not have reached the log, so the retry writes the whole game as a
+ * snapshot, which the game can be loaded from whatever the log holds. A game
+ * stays in memory until its changes have been written.
+ */
+public class ActiveGames implements AutoCloseable {
+
+    private final SQLDataAccess db;
+    private final Map<Integer, Entry> games = new HashMap<>();
+    private final ScheduledExecutorService flusher;
+    // Held while writing so clear() can't interleave with a flush
+    private final Object flushLock = new Object();
+
+    // Times close() tries to write what is left before giving up on it
+    private static final int CLOSE_ATTEMPTS = 3;
+
+    private static final class Entry {
+        GameData data;
+        int sessions;
+        List<ChessMove> pendingMoves = new ArrayList<>();
+        // Copy of the game as of the latest change not yet written
+        ChessGame pendingGame;
+        // A write failed, so the next one must be a snapshot rather than moves
+        boolean snapshotNeeded;
+    }
+
+    private record Pending(int gameID, List<ChessMove> moves, ChessGame game) {
+    }
+
+    public ActiveGames(SQLDataAccess db, long flushIntervalMillis) {
+        this.db = db;
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "game-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes a game live for one more session, loading it if it isn't already
+     *
+     * @return the game, or null if there is no game with that ID
+     */
+    public GameData acquire(int gameID) {
+        synchronized (this) {
+            Entry entry = games.get(gameID);
+            if (entry != null) {
+                entry.sessions++;
+                return entry.data;
+            }
+        }
+
+        // Load without holding up moves on other games; if another session
+        // loaded it meanwhile, theirs wins
+        GameData data = db.findGame(gameID);
+        if (data == null) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = games.computeIfAbsent(gameID, id -> new Entry());
+            if (entry.data == null) {
+                entry.data = data;
+            }
+            entry.sessions++;
+            return entry.data;
+        }
+    }
+
+    /**
+     * Lets go of a game for one session. The last session to let go writes
+     * the game out and drops it from memory.
+     */
+    public void release(int gameID) {
+        synchronized (flushLock) {
+            Pending pending;
+            synchronized (this) {
+                Entry entry = games.get(gameID);
+                if (entry == null || --entry.sessions > 0) {
+                    return;
+                }
+                pending = takePending(gameID, entry);
+            }
+            // Stay live until written, so a session arriving meanwhile can't load a
+            // stale copy; if the write fails the flusher retries it and drops the game then
+            if (pending != null) {
+                tryWrite(pending);
+            }
+            synchronized (this) {
+                dropIfUnused(gameID);
+            }
+        }
+    }
+
+    /**
+     * @return the live game, or else the game as stored, or null if there is none
+     */
+    public GameData get(int gameID) {
+        synchronized (this) {
+            Entry entry = games.get(gameID);
+            if (entry != null) {
+                return entry.data;
+            }
+        }
+        return db.findGame(gameID);
+    }
+
+    /**
+     * Records a move just made on a game returned by {@link #get}. For a live
+     * game it is written later; otherwise it is written now.
+     *
+     * @param game the game after the move was made
+     */
+    public void moveMade(int gameID, ChessMove move, ChessGame game) {
+        synchronized (this) {
+            Entry entry = games.get(gameID);
+            if (entry != null && entry.data.game() == game) {
+                entry.pendingMoves.add(move);
+                entry.pendingGame = copy(game);
+                return;
+            }
+        }
+        db.recordMove(gameID, move, game);
+    }
+
+    /**
+     * Records a change to a game that isn't a move, such as a resignation
+     *
+     * @param game the game after the change
+     */
+    public void gameChanged(int gameID, ChessGame game) {
+        synchronized (this) {
+            Entry entry = games.get(gameID);
+            if (entry != null && entry.data.game() == game) {
+                entry.pendingGame = copy(game);
+                return;
+            }
+        }
+        db.saveGame(gameID, game);
+    }
+
+    /**
+     * Rereads who is playing a live game, after a player joins or leaves
+     */
+    public void playersChanged(int gameID) {
+        synchronized (this) {
+            if (!games.containsKey(gameID)) {
+                return;
+            }
+        }
+        GameData stored = db.findGame(gameID);
+        synchronized (this) {
+            Entry entry = games.get(gameID);
+            if (entry != null && stored != null) {
+                GameData live = entry.data;
+                entry.data = new GameData(gameID, stored.whiteUsername(), stored.blackUsername(),
+                        live.gameName(), live.game());
+            }
+        }
+    }
+
+    /**
+     * Writes every change made to live games so far
+     *
+     * @return true if everything was written, false if some writes failed
+     * and are waiting to be retried
+     */
+    public boolean flush() {
+        boolean written = true;
+        synchronized (flushLock) {
+            List<Pending> batch = new ArrayList<>();
+            synchronized (this) {
+                for (var game : games.entrySet()) {
+                    Pending pending = takePending(game.getKey(), game.getValue());
+                    if (pending != null) {
+                        batch.add(pending);
+                    }
+                }
+            }
+            for (Pending pending : batch) {
+                written &= tryWrite(pending);
+            }
+            synchronized (this) {
+                for (Pending pending : batch) {
+                    dropIfUnused(pending.gameID());
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Forgets every live game without writing it, for when the database is cleared
+     */
+    public void clear() {
+        synchronized (flushLock) {
+            synchronized (this) {
+                games.clear();
+            }
+        }
+    }
+
+    /**
+     * Stops the background writes and writes what is left, trying a few
+     * times before giving up on writes that keep failing
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (int attempt = 1; !flush() && attempt < CLOSE_ATTEMPTS; attempt++) {
+            System.err.println("Retrying unwritten games before shutting down");
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Leave the flusher running; failed writes were already put back to retry
+            e.printStackTrace();
+        }
+    }
+
+    private void dropIfUnused(int gameID) {
+        Entry entry = games.get(gameID);
+        if (entry != null && entry.sessions <= 0 && entry.pendingGame == null) {
+            games.remove(gameID);
+        }
+    }
+
+    private static Pending takePending(int gameID, Entry entry) {
+        if (entry.pendingGame == null) {
+            return null;
+        }
+        // No moves makes write() save a snapshot
+        List<ChessMove> moves = entry.snapshotNeeded ? List.of() : entry.pendingMoves;
+        Pending pending = new Pending(gameID, moves, entry.pendingGame);
+        entry.pendingMoves = new ArrayList<>();
+        entry.pendingGame = null;
+        entry.snapshotNeeded = false;
+        return pending;
+    }
+
+    /**
+     * Writes a batch, or if that fails, puts it back to be written again as a snapshot
+     *
+     * @return true if it was written
+     */
+    private boolean tryWrite(Pending pending) {
+        try {
+            write(pending);
+            return true;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            synchronized (this) {
+                Entry entry = games.get(pending.gameID());
+                // Entries are only removed under flushLock, which the caller holds
+                if (entry != null) {
+                    if (entry.pendingGame == null) {
+                        entry.pendingGame = pending.game();
+                    }
+                    // The newer pending game includes these moves, and the snapshot covers them all
+                    entry.pendingMoves = new ArrayList<>();
+                    entry.snapshotNeeded = true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private void write(Pending pending) {
+        if (pending.moves().isEmpty()) {
+            db.saveGame(pending.gameID(), pending.game());
+        } else {
+            db.recordMoves(pending.gameID(), pending.moves(), pending.game());
+        }
+    }
+
+    // The writer works from a copy so it never reads a game while a move is being made on it
+    private static ChessGame copy(ChessGame game) {
+        return GameCodec.decode(GameCodec.encode(game));
+    }
+}
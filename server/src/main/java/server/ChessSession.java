@@ -1,22 +1,168 @@
 package server;
 
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import websocket.messages.ServerMessage;
 
-import javax.imageio.IIOException;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 
+/**
+ * A user's connection to a game, with its own bounded queue of frames
+ * waiting to go out
+ * <p>
+ * {@link #send} only queues the frame; the queue is written one frame at a
+ * time with Jetty's asynchronous send, each write starting the next from its
+ * callback, so a slow client only ever holds up its own queue. When the
+ * queue is full the session's {@link OverflowPolicy} decides what gives way.
+ */
 public class ChessSession {
     public String username;
     public Session session;
     public Integer gameID;
+    /**
+     * True if the client asked for MOVE_MADE deltas instead of LOAD_GAME after each move
+     */
+    public boolean deltas;
+    /**
+     * True if the client speaks {@link websocket.BinaryProtocol} rather than JSON
+     */
+    public volatile boolean binary;
 
-    public ChessSession(String username, Session session, Integer gameID) {
+    /**
+     * What to do with a frame that arrives when the queue is full. Each
+     * policy falls back to the ones after it. Errors are never dropped to
+     * make room, but when no room can be made the session is disconnected
+     * and everything queued for it, errors included, is lost with it.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the queued LOAD_GAME, which the new frame makes stale anyway
+         */
+        COALESCE_LOAD_GAME,
+        /**
+         * Drop the oldest queued NOTIFICATION
+         */
+        DROP_OLDEST_NOTIFICATION,
+        /**
+         * Close the connection, as the client isn't keeping up, discarding
+         * whatever is still queued for it
+         */
+        DISCONNECT
+    }
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final OutboundMetrics metrics;
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private boolean writing;
+    private boolean closed;
+
+    public ChessSession(String username, Session session, Integer gameID, boolean deltas, boolean binary,
+                        int capacity, OverflowPolicy policy, OutboundMetrics metrics) {
         this.username = username;
         this.session = session;
         this.gameID = gameID;
+        this.deltas = deltas;
+        this.binary = binary;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queues a frame to be written after the ones already waiting
+     */
+    public void send(Frame frame) {
+        boolean start;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (queue.size() >= capacity && !makeRoom(frame)) {
+                closed = true;
+                metrics.frameDropped(queue.size() + 1);
+                queue.clear();
+                metrics.disconnected();
+                session.close(StatusCode.POLICY_VIOLATION, "Too far behind");
+                return;
+            }
+            queue.add(frame);
+            metrics.frameQueued(queue.size());
+            start = !writing;
+            writing = true;
+        }
+        if (start) {
+            writeNext();
+        }
+    }
+
+    /**
+     * @return the number of frames waiting to be written
+     */
+    public synchronized int queued() {
+        return queue.size();
+    }
+
+    // Caller holds the lock
+    private boolean makeRoom(Frame incoming) {
+        if (policy == OverflowPolicy.COALESCE_LOAD_GAME
+                && incoming.type() == ServerMessage.ServerMessageType.LOAD_GAME
+                && removeOldest(ServerMessage.ServerMessageType.LOAD_GAME)) {
+            metrics.coalesced();
+            return true;
+        }
+        if (policy != OverflowPolicy.DISCONNECT && removeOldest(ServerMessage.ServerMessageType.NOTIFICATION)) {
+            metrics.frameDropped(1);
+            return true;
+        }
+        return false;
     }
 
-    public void send(String message) throws IOException {
-        session.getRemote().sendString(message);
+    private boolean removeOldest(ServerMessage.ServerMessageType type) {
+        for (Iterator<Frame> frames = queue.iterator(); frames.hasNext(); ) {
+            if (frames.next().type() == type) {
+                frames.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeNext() {
+        Frame next;
+        synchronized (this) {
+            next = queue.poll();
+            if (next == null || closed) {
+                writing = false;
+                return;
+            }
+        }
+        WriteCallback callback = new WriteCallback() {
+            @Override
+            public void writeSuccess() {
+                metrics.frameSent();
+                writeNext();
+            }
+
+            @Override
+            public void writeFailed(Throwable cause) {
+                synchronized (ChessSession.this) {
+                    closed = true;
+                    writing = false;
+                    metrics.frameDropped(queue.size() + 1);
+                    queue.clear();
+                }
+            }
+        };
+        // A session that switched to binary after the frame was made still gets the JSON
+        ByteBuffer bytes = next.binary();
+        if (bytes != null && (binary || next.text() == null)) {
+            session.getRemote().sendBytes(bytes, callback);
+        } else {
+            session.getRemote().sendString(next.text(), callback);
+        }
     }
 }
@@ -0,0 +1,85 @@
+package server;
+
+import com.google.gson.Gson;
+import websocket.BinaryProtocol;
+import websocket.messages.ServerMessage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A server message already encoded for the wire, in the formats its
+ * sessions speak, so a message going to many sessions is serialized once per
+ * format rather than once per recipient
+ * <p>
+ * Encoding happens when the frame is made, on the thread that made it. A
+ * queued frame may be written much later, by then the game it carries may
+ * have moved on, so it must never read the message again.
+ */
+final class Frame {
+
+    /**
+     * Gson is thread-safe once built, so every connection shares this one
+     */
+    static final Gson GSON = new Gson();
+
+    private final ServerMessage.ServerMessageType type;
+    private final String text;
+    private final byte[] binary;
+
+    private Frame(ServerMessage.ServerMessageType type, String text, byte[] binary) {
+        this.type = type;
+        this.text = text;
+        this.binary = binary;
+    }
+
+    /**
+     * Encodes a message as JSON, for a session that speaks it
+     */
+    static Frame of(ServerMessage message) {
+        return of(message, true, false);
+    }
+
+    /**
+     * Encodes a message in the format a session speaks
+     */
+    static Frame of(ServerMessage message, ChessSession session) {
+        return of(message, !session.binary, session.binary);
+    }
+
+    /**
+     * Encodes a message in the formats asked for, JSON if neither is
+     */
+    static Frame of(ServerMessage message, boolean text, boolean binary) {
+        byte[] encoded = null;
+        if (binary) {
+            ByteBuffer buffer = BinaryProtocol.encode(message);
+            encoded = new byte[buffer.remaining()];
+            buffer.get(encoded);
+        }
+        return new Frame(message.getServerMessageType(),
+                text || !binary ? GSON.toJson(message) : null, encoded);
+    }
+
+    /**
+     * @return the kind of message, so queued frames can be told apart
+     */
+    ServerMessage.ServerMessageType type() {
+        return type;
+    }
+
+    /**
+     * @return the message as JSON, or null if it wasn't encoded as JSON
+     */
+    String text() {
+        return text;
+    }
+
+    /**
+     * @return the message in the {@link BinaryProtocol} form, as a fresh
+     * buffer over the shared bytes so each send can consume its own, or null
+     * if it wasn't encoded in binary
+     */
+    ByteBuffer binary() {
+        return binary == null ? null : ByteBuffer.wrap(binary);
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the commands for each game one at a time, in the order they arrive,
+ * while commands for different games run in parallel
+ * <p>
+ * Each game with work waiting has a mailbox that is run as a single task on
+ * a shared executor of virtual threads. The mailbox takes its commands off
+ * the queue until it is empty, then removes itself, so idle games cost
+ * nothing. A busy mailbox gives up its thread after a batch of commands and
+ * goes to the back of the executor's queue, so one game can't starve the rest.
+ */
+public class GameMailboxes implements AutoCloseable {
+
+    private static final int BATCH_SIZE = 16;
+
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    // A mailbox's queue and running flag are only touched inside compute on this map
+    private final Map<Integer, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private final class Mailbox implements Runnable {
+        private final int gameID;
+        private final ArrayDeque<Runnable> commands = new ArrayDeque<>();
+        private boolean running;
+
+        Mailbox(int gameID) {
+            this.gameID = gameID;
+        }
+
+        @Override
+        public void run() {
+            int ran = 0;
+            while (true) {
+                if (ran == BATCH_SIZE) {
+                    try {
+                        workers.execute(this);
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        // Shutting down: finish the queue on this thread instead
+                        ran = 0;
+                    }
+                }
+                Runnable command = next();
+                if (command == null) {
+                    return;
+                }
+                try {
+                    command.run();
+                } catch (RuntimeException e) {
+                    // One failed command must not stop the game's later ones
+                    e.printStackTrace();
+                }
+                ran++;
+            }
+        }
+
+        private Runnable next() {
+            Runnable[] next = new Runnable[1];
+            mailboxes.compute(gameID, (id, mailbox) -> {
+                next[0] = commands.poll();
+                if (next[0] == null) {
+                    running = false;
+                    return null;
+                }
+                return mailbox;
+            });
+            return next[0];
+        }
+    }
+
+    /**
+     * Queues a command to run after every command already queued for the game
+     *
+     * @throws RejectedExecutionException if the mailboxes have been closed,
+     *                                    in which case the command is not queued
+     */
+    public void submit(int gameID, Runnable command) {
+        mailboxes.compute(gameID, (id, mailbox) -> {
+            if (mailbox == null) {
+                mailbox = new Mailbox(id);
+            }
+            mailbox.commands.add(command);
+            if (!mailbox.running) {
+                try {
+                    workers.execute(mailbox);
+                } catch (RejectedExecutionException e) {
+                    // Leave the mailbox as it was, so it isn't stuck waiting on a run that never comes
+                    mailbox.commands.removeLast();
+                    throw new RejectedExecutionException("Server is shutting down", e);
+                }
+                // The mailbox can't take its first command before this compute returns
+                mailbox.running = true;
+            }
+            return mailbox;
+        });
+    }
+
+    /**
+     * Lets the queued commands finish, waiting up to ten seconds
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
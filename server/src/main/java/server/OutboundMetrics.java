@@ -0,0 +1,54 @@
+package server;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters shared by every session's outbound queue
+ */
+public class OutboundMetrics {
+
+    /**
+     * @param sessions      connected sessions
+     * @param queued        frames waiting across all sessions right now
+     * @param maxDepth      deepest any one queue has been
+     * @param sent          frames written
+     * @param dropped       frames thrown away, by overflow or a failed connection
+     * @param coalesced     stale LOAD_GAME frames replaced by newer ones
+     * @param disconnected  sessions closed for falling too far behind
+     */
+    public record Stats(int sessions, int queued, long maxDepth, long sent, long dropped, long coalesced,
+                        long disconnected) {
+    }
+
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+
+    void frameQueued(int depth) {
+        maxDepth.accumulate(depth);
+    }
+
+    void frameSent() {
+        sent.increment();
+    }
+
+    void frameDropped(int count) {
+        dropped.add(count);
+    }
+
+    void coalesced() {
+        coalesced.increment();
+    }
+
+    void disconnected() {
+        disconnected.increment();
+    }
+
+    Stats snapshot(int sessions, int queued) {
+        return new Stats(sessions, queued, maxDepth.get(), sent.sum(), dropped.sum(), coalesced.sum(),
+                disconnected.sum());
+    }
+}
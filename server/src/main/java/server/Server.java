@@ -1,6 +1,9 @@
 package server;
 
+import dataaccess.AuthCache;
+import dataaccess.ConnectionPool;
 import dataaccess.DataAccessException;
+import dataaccess.DatabaseManager;
 import dataaccess.SQLDataAccess;
 import reqres.JoinRequest;
 import reqres.LoginRequest;
@@ -13,11 +16,19 @@ import spark.Spark;
 import com.google.gson.Gson;
 
 import java.sql.SQLException;
+import java.util.Properties;
 
 public class Server {
+    // Longest a move made on a live game waits before it is written to the database
+    private static final long GAME_FLUSH_INTERVAL_MILLIS = 250;
+    private static final Gson GSON = new Gson();
+
     SQLDataAccess dataAccess = new SQLDataAccess();
     private final UserService userService = new UserService(dataAccess);
     private final GameService gameService = new GameService(dataAccess);
+    private ActiveGames activeGames;
+    private GameMailboxes mailboxes;
+    private SessionManager sessions;
 
     public Server() {
     }
@@ -33,7 +44,10 @@ public class Server {
             throw new RuntimeException("Failed to configure database", e);
         }
 
-        Spark.webSocket("/ws", WSHandler.class);
+        activeGames = new ActiveGames(dataAccess, GAME_FLUSH_INTERVAL_MILLIS);
+        mailboxes = new GameMailboxes();
+        sessions = newSessionManager(loadSettings());
+        Spark.webSocket("/ws", new WSHandler(dataAccess, activeGames, mailboxes, sessions));
 
         Spark.post("/user", this::register);
         Spark.delete("/db", this::clear);
@@ -42,6 +56,7 @@ public class Server {
         Spark.get("/game", this::listGames);
         Spark.post("/game", this::createGame);
         Spark.put("/game", this::joinGame);
+        Spark.get("/stats", this::stats);
 
         Spark.awaitInitialization();
         return Spark.port();
@@ -50,6 +65,40 @@ public class Server {
     public void stop() {
         Spark.stop();
         Spark.awaitStop();
+        // Let queued commands finish before writing out the games they change
+        if (mailboxes != null) {
+            mailboxes.close();
+        }
+        if (activeGames != null) {
+            activeGames.close();
+        }
+    }
+
+    /**
+     * Reads the server's settings from server.properties, leaving every
+     * setting at its default if there is no such file
+     */
+    private static Properties loadSettings() {
+        Properties props = new Properties();
+        try (var propStream = Thread.currentThread().getContextClassLoader().getResourceAsStream("server.properties")) {
+            if (propStream != null) {
+                props.load(propStream);
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("unable to process server.properties", ex);
+        }
+        return props;
+    }
+
+    private static SessionManager newSessionManager(Properties props) {
+        // Frames a WebSocket client may fall behind by before its queue overflows
+        int queueCapacity = Integer.parseInt(props.getProperty("ws.queueCapacity", "64").trim());
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("ws.queueCapacity must be at least 1");
+        }
+        var overflowPolicy = ChessSession.OverflowPolicy.valueOf(
+                props.getProperty("ws.overflowPolicy", "COALESCE_LOAD_GAME").trim());
+        return new SessionManager(queueCapacity, overflowPolicy);
     }
 
     private void handleErrors(Response res, String message) {
@@ -67,52 +116,81 @@ public class Server {
     }
 
     private Object register(Request req, Response res) throws DataAccessException {
-        var user = new Gson().fromJson(req.body(), RegisterRequest.class);
+        var user = GSON.fromJson(req.body(), RegisterRequest.class);
         var result = userService.register(user);
         handleErrors(res, result.message());
-        return new Gson().toJson(result);
+        return GSON.toJson(result);
     }
 
     private Object clear(Request req, Response res) {
+        activeGames.clear();
         var result = userService.clear();
         handleErrors(res, result.message());
-        return new Gson().toJson(result);
+        return GSON.toJson(result);
     }
 
     private Object login(Request req, Response res) {
-        var user = new Gson().fromJson(req.body(), LoginRequest.class);
+        var user = GSON.fromJson(req.body(), LoginRequest.class);
         var result = userService.login(user);
         handleErrors(res, result.message());
-        return new Gson().toJson(result);
+        return GSON.toJson(result);
     }
 
     private Object logout(Request req, Response res) {
         var authToken = req.headers("authorization");
         var result = userService.logout(authToken);
         handleErrors(res, result.message());
-        return new Gson().toJson(result);
+        return GSON.toJson(result);
     }
 
     private Object listGames(Request req, Response res) {
         var authToken = req.headers("authorization");
         var result = gameService.listGames(authToken);
         handleErrors(res, result.message());
-        return new Gson().toJson(result);
+        return GSON.toJson(result);
     }
 
     private Object createGame(Request req, Response res) {
         var authToken = req.headers("authorization");
-        var gameRequest = new Gson().fromJson(req.body(), NewGameRequest.class);
+        var gameRequest = GSON.fromJson(req.body(), NewGameRequest.class);
         var result = gameService.createGame(authToken, gameRequest);
         handleErrors(res, result.message());
-        return new Gson().toJson(result);
+        return GSON.toJson(result);
     }
 
     private Object joinGame(Request req, Response res) {
         var authToken = req.headers("authorization");
-        var joinRequest = new Gson().fromJson(req.body(), JoinRequest.class);
+        var joinRequest = GSON.fromJson(req.body(), JoinRequest.class);
         var result = gameService.joinGame(authToken, joinRequest);
+        if (result.message() == null) {
+            activeGames.playersChanged(joinRequest.gameID());
+        }
+        handleErrors(res, result.message());
+        return GSON.toJson(result);
+    }
+
+    /**
+     * The counters of the WebSocket queues, the connection pool and the auth
+     * token cache, for any signed-in user
+     */
+    private record StatsResult(OutboundMetrics.Stats outbound, ConnectionPool.Stats pool,
+                               AuthCache.Stats authCache, String message) {
+    }
+
+    private Object stats(Request req, Response res) {
+        var authToken = req.headers("authorization");
+        StatsResult result;
+        try {
+            if (authToken == null || dataAccess.findUser(authToken) == null) {
+                result = new StatsResult(null, null, null, "Error: unauthorized");
+            } else {
+                result = new StatsResult(sessions.outboundStats(), DatabaseManager.poolStats(),
+                        DatabaseManager.authCacheStats(), null);
+            }
+        } catch (RuntimeException e) {
+            result = new StatsResult(null, null, null, "Internal Server Error");
+        }
         handleErrors(res, result.message());
-        return new Gson().toJson(result);
+        return GSON.toJson(result);
     }
 }
@@ -1,55 +1,215 @@
 package server;
 
-import com.google.gson.Gson;
 import org.eclipse.jetty.websocket.api.Session;
 import websocket.messages.ServerMessage;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The connected sessions, indexed by username and by game so sending to one
+ * user or broadcasting to one game only touches the sessions involved
+ * <p>
+ * Reads are lock-free. Adding and removing are synchronized so the indexes
+ * always agree, and a session found closed while sending is removed from both.
+ * Sending only queues the message on each session (see {@link ChessSession}),
+ * so a broadcast never waits on a slow client.
+ */
 public class SessionManager {
-    public final ConcurrentHashMap<String, ChessSession> sessions = new ConcurrentHashMap<>();
+    private final int queueCapacity;
+    private final ChessSession.OverflowPolicy overflowPolicy;
+    private final OutboundMetrics metrics = new OutboundMetrics();
+    private final ConcurrentHashMap<String, ChessSession> byUsername = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Set<ChessSession>> byGame = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Session, ChessSession> bySession = new ConcurrentHashMap<>();
+    // Connections that have sent a binary frame, and so are answered in binary
+    private final Set<Session> binarySessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param queueCapacity  most frames a session may have waiting to be written
+     * @param overflowPolicy what gives way when a session's queue is full
+     */
+    public SessionManager(int queueCapacity, ChessSession.OverflowPolicy overflowPolicy) {
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+    }
 
     public void add(String username, Session session, Integer gameID) {
-        var connection = new ChessSession(username, session, gameID);
-        sessions.put(username, connection);
+        add(username, session, gameID, false);
     }
 
-    public void remove(String username) {
-        sessions.remove(username);
+    /**
+     * @param deltas true if the session wants MOVE_MADE deltas instead of LOAD_GAME after each move
+     */
+    public synchronized void add(String username, Session session, Integer gameID, boolean deltas) {
+        var connection = new ChessSession(username, session, gameID, deltas, binarySessions.contains(session),
+                queueCapacity, overflowPolicy, metrics);
+        var previous = byUsername.put(username, connection);
+        if (previous != null) {
+            unindex(previous);
+        }
+        byGame.computeIfAbsent(gameID, id -> ConcurrentHashMap.newKeySet()).add(connection);
+        bySession.put(session, connection);
     }
 
-    public void broadcast(String sourceUsername, ServerMessage notif, Integer gameID) throws IOException {
-        String json = new Gson().toJson(notif);
+    public synchronized void remove(String username) {
+        var connection = byUsername.remove(username);
+        if (connection != null) {
+            unindex(connection);
+        }
+    }
 
-        var closedSessions = new ArrayList<ChessSession>();
+    /**
+     * Switches a connection to the binary protocol, for it and for the user
+     * connected through it
+     */
+    public synchronized void useBinary(Session session) {
+        if (binarySessions.add(session)) {
+            var connection = bySession.get(session);
+            if (connection != null) {
+                connection.binary = true;
+            }
+        }
+    }
 
-        for (var c : sessions.values()) {
-            if (c.session.isOpen() && c.gameID.equals(gameID)) {
-                if (!c.username.equals(sourceUsername)) {
-                    c.send(json);
-                }
-            } else {
-                closedSessions.add(c);
+    /**
+     * Removes whichever user is connected through a session, once it closes
+     */
+    public synchronized void remove(Session session) {
+        binarySessions.remove(session);
+        var connection = bySession.get(session);
+        if (connection != null) {
+            byUsername.remove(connection.username, connection);
+            unindex(connection);
+        }
+    }
+
+    private synchronized void prune(ChessSession connection) {
+        byUsername.remove(connection.username, connection);
+        unindex(connection);
+    }
+
+    // Caller holds the lock and has already dealt with byUsername
+    private void unindex(ChessSession connection) {
+        bySession.remove(connection.session, connection);
+        var watchers = byGame.get(connection.gameID);
+        if (watchers != null) {
+            watchers.remove(connection);
+            if (watchers.isEmpty()) {
+                byGame.remove(connection.gameID);
             }
         }
+    }
 
+    public void broadcast(String sourceUsername, ServerMessage notif, Integer gameID) throws IOException {
+        var watchers = byGame.get(gameID);
+        if (watchers == null) {
+            return;
+        }
+        boolean text = false;
+        boolean binary = false;
+        for (var c : watchers) {
+            if (!c.username.equals(sourceUsername)) {
+                text |= !c.binary;
+                binary |= c.binary;
+            }
+        }
+        if (text || binary) {
+            broadcast(sourceUsername, Frame.of(notif, text, binary), gameID);
+        }
     }
 
-    public void send(String username, ServerMessage message) throws IOException {
-        String json = new Gson().toJson(message);
-
-        var closedSessions = new ArrayList<ChessSession>();
-        for (var c : sessions.values()) {
-            if (c.session.isOpen()) {
-                if (c.username.equals(username)) {
-                    c.send(json);
-                }
+    /**
+     * Sends one encoded frame to every session watching a game
+     *
+     * @param sourceUsername user to leave out, or null to send to everyone
+     */
+    public void broadcast(String sourceUsername, Frame frame, Integer gameID) throws IOException {
+        var watchers = byGame.get(gameID);
+        if (watchers == null) {
+            return;
+        }
+        for (var c : watchers) {
+            if (!c.session.isOpen()) {
+                prune(c);
+            } else if (!c.username.equals(sourceUsername)) {
+                c.send(frame);
+            }
+        }
+    }
+
+    /**
+     * Sends to a connection whether or not it has joined a game yet, going
+     * through its queue if it has one so writes never overlap
+     */
+    public void send(Session session, ServerMessage message) throws IOException {
+        var c = bySession.get(session);
+        if (c != null) {
+            c.send(Frame.of(message, c));
+        } else if (session.isOpen() && binarySessions.contains(session)) {
+            session.getRemote().sendBytes(Frame.of(message, false, true).binary());
+        } else if (session.isOpen()) {
+            session.getRemote().sendString(Frame.of(message).text());
+        }
+    }
+
+    public OutboundMetrics.Stats outboundStats() {
+        int queued = 0;
+        for (var c : byUsername.values()) {
+            queued += c.queued();
+        }
+        return metrics.snapshot(byUsername.size(), queued);
+    }
+
+    /**
+     * Sends the result of a move to every session watching a game: the delta
+     * to those that asked for deltas and the whole game to the rest. Each
+     * message is encoded once per format some session needs, here and now,
+     * so the frames can't see moves made after this one.
+     */
+    public void broadcastMove(ServerMessage loadGame, ServerMessage delta, Integer gameID) throws IOException {
+        var watchers = byGame.get(gameID);
+        if (watchers == null) {
+            return;
+        }
+        boolean loadGameText = false;
+        boolean loadGameBinary = false;
+        boolean deltaText = false;
+        boolean deltaBinary = false;
+        for (var c : watchers) {
+            if (c.deltas) {
+                deltaText |= !c.binary;
+                deltaBinary |= c.binary;
             } else {
-                closedSessions.add(c);
+                loadGameText |= !c.binary;
+                loadGameBinary |= c.binary;
+            }
+        }
+        Frame loadGameFrame = loadGameText || loadGameBinary
+                ? Frame.of(loadGame, loadGameText, loadGameBinary) : null;
+        Frame deltaFrame = deltaText || deltaBinary ? Frame.of(delta, deltaText, deltaBinary) : null;
+        for (var c : watchers) {
+            if (!c.session.isOpen()) {
+                prune(c);
+            } else if (c.deltas && deltaFrame != null) {
+                c.send(deltaFrame);
+            } else if (!c.deltas && loadGameFrame != null) {
+                c.send(loadGameFrame);
             }
         }
     }
 
-}
\ No newline at end of file
+    public void send(String username, ServerMessage message) throws IOException {
+        var c = byUsername.get(username);
+        if (c == null) {
+            return;
+        }
+        if (!c.session.isOpen()) {
+            prune(c);
+            return;
+        }
+        c.send(Frame.of(message, c));
+    }
+
+}
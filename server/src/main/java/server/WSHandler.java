@@ -4,46 +4,141 @@ import chess.ChessGame;
 import chess.ChessMove;
 import chess.ChessPiece;
 import chess.InvalidMoveException;
-import com.google.gson.Gson;
+import chess.Moves;
 import model.GameData;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import websocket.BinaryProtocol;
 import websocket.commands.UserGameCommand;
 import websocket.messages.ServerMessage;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import dataaccess.SQLDataAccess;
 
 @WebSocket
 public class WSHandler {
 
-    private final SessionManager sessions = new SessionManager();
-    private final SQLDataAccess db = new SQLDataAccess();
+    private final SessionManager sessions;
+    private final SQLDataAccess db;
+    private final ActiveGames games;
+    private final GameMailboxes mailboxes;
+    // The game each connection holds live in the registry
+    private final Map<Session, Integer> openGames = new ConcurrentHashMap<>();
+    // The game each connection last sent a command for, whose mailbox its close must queue behind
+    private final Map<Session, Integer> lastGames = new ConcurrentHashMap<>();
 
+    public WSHandler(SQLDataAccess db, ActiveGames games, GameMailboxes mailboxes, SessionManager sessions) {
+        this.db = db;
+        this.sessions = sessions;
+        this.games = games;
+        this.mailboxes = mailboxes;
+    }
+
+    @OnWebSocketClose
+    public void onClose(Session session, int statusCode, String reason) {
+        sessions.remove(session);
+        Integer gameID = lastGames.remove(session);
+        if (gameID != null) {
+            try {
+                mailboxes.submit(gameID, () -> releaseGame(session));
+            } catch (RejectedExecutionException e) {
+                // Shutting down, so the game's mailbox has already finished its commands
+                releaseGame(session);
+            }
+        }
+    }
+
+    private void releaseGame(Session session) {
+        Integer gameID = openGames.remove(session);
+        if (gameID != null) {
+            games.release(gameID);
+        }
+    }
+
+    /**
+     * Hands the command to its game's mailbox, so commands for one game run
+     * one at a time in the order they arrived
+     */
     @OnWebSocketMessage
     public void onMessage(Session session, String message) throws IOException {
-        UserGameCommand command = new Gson().fromJson(message, UserGameCommand.class);
+        dispatch(session, Frame.GSON.fromJson(message, UserGameCommand.class));
+    }
+
+    /**
+     * Takes a command in the {@link BinaryProtocol} form, after which the
+     * connection is answered in binary too
+     */
+    @OnWebSocketMessage
+    public void onMessage(Session session, byte[] payload, int offset, int length) throws IOException {
+        sessions.useBinary(session);
+        UserGameCommand command;
+        try {
+            command = BinaryProtocol.decodeCommand(ByteBuffer.wrap(payload, offset, length));
+        } catch (IllegalArgumentException e) {
+            sessions.send(session, ServerMessage.error("Error: " + e.getMessage()));
+            return;
+        }
+        dispatch(session, command);
+    }
+
+    private void dispatch(Session session, UserGameCommand command) throws IOException {
+        if (command.getGameID() == null) {
+            handle(session, command);
+            return;
+        }
+        lastGames.put(session, command.getGameID());
+        try {
+            mailboxes.submit(command.getGameID(), () -> {
+                try {
+                    handle(session, command);
+                } catch (IOException e) {
+                    // The connection is gone; its close event cleans up after it
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    sendQuietly(session, ServerMessage.error("Error: " + e.getMessage()));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sendQuietly(session, ServerMessage.error("Error: server is shutting down"));
+        }
+    }
+
+    private void sendQuietly(Session session, ServerMessage message) {
+        try {
+            sessions.send(session, message);
+        } catch (IOException e) {
+            // Nothing left to tell a connection that can't be written to
+        }
+    }
+
+    private void handle(Session session, UserGameCommand command) throws IOException {
         var username = db.findUser(command.getAuthToken());
         if (username == null) {
             var error = ServerMessage.error("Invalid or expired auth token.");
-            session.getRemote().sendString(new Gson().toJson(error));
+            sessions.send(session, error);
             return;
         }
 
         switch (command.getCommandType()) {
-            case CONNECT -> connect(username, command.getGameID(), session);
+            case CONNECT -> connect(username, command.getGameID(), session, command.wantsDeltas());
+            case RESYNC -> resync(username, command.getGameID());
             case LEAVE -> leave(username, session, command.getGameID());
             case RESIGN -> forfeit(username, session, command.getGameID());
             case MAKE_MOVE -> makeMove(username, command.getMove(), command.getGameID());
         }
     }
 
-    private void connect(String username, Integer gameID, Session session) throws IOException {
-        GameData game = db.findGame(gameID);
+    private void connect(String username, Integer gameID, Session session, boolean deltas) throws IOException {
+        GameData game = games.acquire(gameID);
         if (game == null) {
             var error = ServerMessage.error("Game with ID " + gameID + " does not exist.");
-            session.getRemote().sendString(new Gson().toJson(error));
+            sessions.send(session, error);
             return;
         }
 
@@ -53,7 +148,11 @@ public class WSHandler {
         } else if (game.whiteUsername().equals(username)) {
             color = "white";
         }
-        sessions.add(username, session, gameID);
+        Integer previous = openGames.put(session, gameID);
+        if (previous != null) {
+            games.release(previous);
+        }
+        sessions.add(username, session, gameID, deltas);
         String message;
         if (color == null) {
             message = String.format("%s has joined the game as an observer", username);
@@ -68,14 +167,17 @@ public class WSHandler {
     }
 
     private void leave(String username, Session session, Integer gameID) throws IOException {
-        GameData game = db.findGame(gameID);
+        GameData game = games.get(gameID);
 
         if (username.equals(game.whiteUsername())) {
             db.removePlayer(gameID, "white");
+            games.playersChanged(gameID);
         }
         if (username.equals(game.blackUsername())) {
             db.removePlayer(gameID, "black");
+            games.playersChanged(gameID);
         }
+        releaseGame(session);
 
         sessions.remove(username);
         String message = String.format("%s has left the game", username);
@@ -84,7 +186,7 @@ public class WSHandler {
     }
 
     private void makeMove(String username, ChessMove move, Integer gameID) throws IOException {
-        GameData game = db.findGame(gameID);
+        GameData game = games.get(gameID);
 
         boolean isWhite = username.equals(game.whiteUsername());
         boolean isBlack = username.equals(game.blackUsername());
@@ -113,15 +215,23 @@ public class WSHandler {
 
         try {
             game.game().makeMove(move);
-            db.saveGame(gameID, game.game());
+            ChessGame.GameStatus status = game.game().getStatus();
+            if (status.isGameOver()) {
+                game.game().gameOver();
+            }
+            games.moveMade(gameID, move, game.game());
 
             String message = String.format("%s: %s", username, move);
             var notification = ServerMessage.notification(message);
             var board = ServerMessage.loadGame(game);
+            var delta = ServerMessage.moveMade(Moves.encode(move), game.game().getPly(), game.game().getZobristKey());
 
             sessions.broadcast(username, notification, gameID);
-            sessions.broadcast(null, board, gameID);
+            sessions.broadcastMove(board, delta, gameID);
             //sessions.send(username, board);
+            if (status != ChessGame.GameStatus.ONGOING) {
+                sessions.broadcast(null, ServerMessage.notification(statusMessage(game, status)), gameID);
+            }
         } catch (InvalidMoveException e) {
             var error = ServerMessage.error("Invalid move: " + e.getMessage());
             sessions.send(username, error);  // only send to the player who made the move
@@ -129,8 +239,31 @@ public class WSHandler {
 
     }
 
+    private void resync(String username, Integer gameID) throws IOException {
+        GameData game = games.get(gameID);
+        if (game == null) {
+            sessions.send(username, ServerMessage.error("Game with ID " + gameID + " does not exist."));
+            return;
+        }
+        sessions.send(username, ServerMessage.loadGame(game));
+    }
+
+    private String statusMessage(GameData game, ChessGame.GameStatus status) {
+        boolean whiteToMove = game.game().getTeamTurn() == ChessGame.TeamColor.WHITE;
+        String player = whiteToMove ? game.whiteUsername() : game.blackUsername();
+        return switch (status) {
+            case CHECK -> String.format("%s is in check", player);
+            case CHECKMATE -> String.format("%s is in checkmate", player);
+            case STALEMATE -> String.format("%s has no legal moves, the game is a stalemate", player);
+            case DRAW_SEVENTY_FIVE_MOVE -> "The game is a draw by the 75-move rule";
+            case DRAW_REPETITION -> "The game is a draw by fivefold repetition";
+            case DRAW_INSUFFICIENT_MATERIAL -> "The game is a draw, neither side has enough material to checkmate";
+            case ONGOING -> "";
+        };
+    }
+
     private void forfeit(String username, Session session, Integer gameID) throws IOException {
-        GameData game = db.findGame(gameID);
+        GameData game = games.get(gameID);
 
         boolean isWhite = username.equals(game.whiteUsername());
         boolean isBlack = username.equals(game.blackUsername());
@@ -144,13 +277,14 @@ public class WSHandler {
             return;
         }
         game.game().gameOver();
-        db.saveGame(game.gameID(), game.game());
+        games.gameChanged(game.gameID(), game.game());
 
         String message = String.format("%s has forfeited the game", username);
         var notification = ServerMessage.notification(message);
         sessions.send(username, notification);
         sessions.broadcast(username, notification, gameID);
         sessions.remove(username);
+        releaseGame(session);
     }
 
 }
@@ -0,0 +1,82 @@
+package dataaccess;
+
+import org.junit.jupiter.api.*;
+
+public class AuthCacheTests {
+
+    @Test
+    @DisplayName("Auth Cache - Hits and Misses Counted")
+    public void hitsAndMisses() {
+        AuthCache cache = new AuthCache(new AuthCache.Settings(10, 60000));
+        Assertions.assertNull(cache.get("token"));
+        cache.put("token", "user", cache.generation());
+        Assertions.assertEquals("user", cache.get("token"));
+        Assertions.assertEquals("user", cache.get("token"));
+
+        AuthCache.Stats stats = cache.stats();
+        Assertions.assertEquals(1, stats.size());
+        Assertions.assertEquals(2, stats.hits());
+        Assertions.assertEquals(1, stats.misses());
+    }
+
+    @Test
+    @DisplayName("Auth Cache - Entries Expire After Their TTL")
+    public void ttlExpiry() throws InterruptedException {
+        AuthCache cache = new AuthCache(new AuthCache.Settings(10, 50));
+        cache.put("token", "user", cache.generation());
+        Assertions.assertEquals("user", cache.get("token"));
+        Thread.sleep(100);
+        Assertions.assertNull(cache.get("token"), "Expired token was still cached");
+        Assertions.assertEquals(1, cache.stats().expirations());
+        Assertions.assertEquals(0, cache.stats().size());
+    }
+
+    @Test
+    @DisplayName("Auth Cache - Least Recently Used Entry Evicted")
+    public void lruEviction() {
+        AuthCache cache = new AuthCache(new AuthCache.Settings(2, 60000));
+        cache.put("a", "userA", cache.generation());
+        cache.put("b", "userB", cache.generation());
+        // Reading a makes b the least recently used
+        cache.get("a");
+        cache.put("c", "userC", cache.generation());
+
+        Assertions.assertNull(cache.get("b"), "Least recently used token was kept");
+        Assertions.assertEquals("userA", cache.get("a"));
+        Assertions.assertEquals("userC", cache.get("c"));
+        Assertions.assertEquals(1, cache.stats().evictions());
+    }
+
+    @Test
+    @DisplayName("Auth Cache - Stale Lookup Not Cached After Invalidate or Clear")
+    public void staleLookupDropped() {
+        AuthCache cache = new AuthCache(new AuthCache.Settings(10, 60000));
+        cache.put("token", "user", cache.generation());
+
+        // A lookup starts, then the token is deleted before it finishes
+        long lookup = cache.generation();
+        cache.invalidate("token");
+        cache.put("token", "user", lookup);
+        Assertions.assertNull(cache.get("token"), "Deleted token came back from a stale lookup");
+        Assertions.assertEquals(1, cache.stats().invalidations());
+
+        cache.put("other", "user", cache.generation());
+        lookup = cache.generation();
+        cache.clear();
+        cache.put("other", "user", lookup);
+        Assertions.assertNull(cache.get("other"), "Cleared token came back from a stale lookup");
+
+        // Lookups started after the invalidation are cached again
+        cache.put("token", "user", cache.generation());
+        Assertions.assertEquals("user", cache.get("token"));
+    }
+
+    @Test
+    @DisplayName("Auth Cache - Size Zero Turns It Off")
+    public void disabled() {
+        AuthCache cache = new AuthCache(new AuthCache.Settings(0, 60000));
+        cache.put("token", "user", cache.generation());
+        Assertions.assertNull(cache.get("token"));
+        Assertions.assertEquals(0, cache.stats().size());
+    }
+}
@@ -0,0 +1,224 @@
+package dataaccess;
+
+import org.junit.jupiter.api.*;
+
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * Runs the pool against a stub JDBC driver, so no database is needed
+ */
+public class ConnectionPoolTests {
+
+    private static final String URL = "jdbc:poolstub:test";
+    private static final StubDriver DRIVER = new StubDriver();
+
+    private ConnectionPool pool;
+
+    @BeforeAll
+    public static void registerDriver() throws SQLException {
+        DriverManager.registerDriver(DRIVER);
+    }
+
+    @AfterAll
+    public static void deregisterDriver() throws SQLException {
+        DriverManager.deregisterDriver(DRIVER);
+    }
+
+    @BeforeEach
+    public void resetDriver() {
+        DRIVER.opened.clear();
+    }
+
+    @AfterEach
+    public void closePool() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private ConnectionPool newPool(int maxSize, long acquireTimeoutMillis) {
+        pool = new ConnectionPool(URL, "user", "password", "chess",
+                new ConnectionPool.Settings(0, maxSize, 600000, acquireTimeoutMillis, null, 0));
+        return pool;
+    }
+
+    @Test
+    @DisplayName("Borrow and Return - Connection Reused and Reset")
+    public void borrowReturn() throws Exception {
+        newPool(2, 1000);
+        Connection first = pool.borrow();
+        first.setAutoCommit(false);
+        first.close();
+        first.close();
+        Assertions.assertTrue(first.isClosed(), "Returned connection did not report closed");
+        Assertions.assertThrows(SQLException.class, first::createStatement, "Returned connection was still usable");
+
+        StubConnection real = DRIVER.opened.get(0);
+        Assertions.assertEquals(1, real.rollbacks, "Open transaction was not rolled back on return");
+        Assertions.assertTrue(real.autoCommit, "Autocommit was not restored on return");
+        Assertions.assertFalse(real.closed, "Returned connection was closed instead of pooled");
+        Assertions.assertEquals("chess", real.catalog);
+
+        try (Connection second = pool.borrow()) {
+            Assertions.assertNotSame(first, second);
+            Assertions.assertEquals(1, DRIVER.opened.size(), "Idle connection was not reused");
+            ConnectionPool.Stats stats = pool.stats();
+            Assertions.assertEquals(1, stats.active());
+            Assertions.assertEquals(0, stats.idle());
+        }
+        ConnectionPool.Stats stats = pool.stats();
+        Assertions.assertEquals(2, stats.borrowed());
+        Assertions.assertEquals(1, stats.created());
+        Assertions.assertEquals(1, stats.idle());
+    }
+
+    @Test
+    @DisplayName("Max Size - Borrow Times Out")
+    public void maxSizeTimeout() throws Exception {
+        newPool(1, 100);
+        Connection held = pool.borrow();
+        long start = System.nanoTime();
+        Assertions.assertThrows(DataAccessException.class, pool::borrow);
+        Assertions.assertTrue(System.nanoTime() - start >= 90_000_000L, "Borrow gave up before the timeout");
+        Assertions.assertEquals(1, pool.stats().timeouts());
+        Assertions.assertEquals(1, DRIVER.opened.size(), "Pool opened more than its maximum");
+
+        held.close();
+        try (Connection again = pool.borrow()) {
+            Assertions.assertFalse(again.isClosed());
+        }
+    }
+
+    @Test
+    @DisplayName("Validation - Bad Idle Connection Discarded")
+    public void badIdleConnectionDiscarded() throws Exception {
+        newPool(1, 1000);
+        pool.borrow().close();
+        StubConnection broken = DRIVER.opened.get(0);
+        broken.valid = false;
+        // Connections idle for less than half a second are handed out unchecked
+        Thread.sleep(600);
+
+        try (Connection replacement = pool.borrow()) {
+            Assertions.assertFalse(replacement.isClosed());
+        }
+        Assertions.assertTrue(broken.closed, "Bad connection was not closed");
+        Assertions.assertEquals(2, DRIVER.opened.size(), "Bad connection was not replaced");
+        Assertions.assertEquals(1, pool.stats().open());
+    }
+
+    @Test
+    @DisplayName("Close - Leases Still Out Closed on Return")
+    public void closeWithLeasesOut() throws Exception {
+        newPool(2, 1000);
+        Connection leased = pool.borrow();
+        pool.borrow().close();
+        StubConnection idle = DRIVER.opened.get(1);
+
+        pool.close();
+        Assertions.assertTrue(idle.closed, "Idle connection was not closed");
+        Assertions.assertThrows(DataAccessException.class, pool::borrow);
+
+        StubConnection stillOut = DRIVER.opened.get(0);
+        Assertions.assertFalse(stillOut.closed, "Borrowed connection was closed under its user");
+        leased.createStatement();
+        leased.close();
+        Assertions.assertTrue(stillOut.closed, "Connection returned after close was pooled");
+        Assertions.assertEquals(0, pool.stats().open());
+    }
+
+    /**
+     * The state of one connection the stub driver has opened
+     */
+    private static class StubConnection {
+        volatile boolean closed;
+        volatile boolean valid = true;
+        volatile boolean autoCommit = true;
+        volatile int rollbacks;
+        volatile String catalog;
+
+        Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> switch (method.getName()) {
+                        case "close" -> {
+                            closed = true;
+                            yield null;
+                        }
+                        case "isClosed" -> closed;
+                        case "isValid" -> valid && !closed;
+                        case "getAutoCommit" -> autoCommit;
+                        case "setAutoCommit" -> {
+                            autoCommit = (Boolean) args[0];
+                            yield null;
+                        }
+                        case "rollback" -> {
+                            rollbacks++;
+                            yield null;
+                        }
+                        case "setCatalog" -> {
+                            catalog = (String) args[0];
+                            yield null;
+                        }
+                        case "createStatement" -> {
+                            if (closed) {
+                                throw new SQLException("closed");
+                            }
+                            yield null;
+                        }
+                        case "equals" -> proxy == args[0];
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "toString" -> "StubConnection";
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+    }
+
+    private static class StubDriver implements Driver {
+        final List<StubConnection> opened = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            StubConnection connection = new StubConnection();
+            opened.add(connection);
+            return connection.proxy();
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:poolstub:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return Logger.getGlobal();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package server;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GameMailboxesTests {
+
+    private GameMailboxes mailboxes;
+
+    @BeforeEach
+    public void setup() {
+        mailboxes = new GameMailboxes();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        mailboxes.close();
+    }
+
+    @Test
+    @DisplayName("Mailboxes - Each Game Runs Its Commands One at a Time in Order")
+    public void perGameOrder() {
+        int games = 4;
+        int commands = 2000;
+        List<List<Integer>> ran = new ArrayList<>();
+        List<AtomicInteger> running = new ArrayList<>();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        for (int game = 0; game < games; game++) {
+            ran.add(new ArrayList<>());
+            running.add(new AtomicInteger());
+        }
+
+        // Interleave the games' submissions, as commands from many sessions would be
+        for (int i = 0; i < commands; i++) {
+            for (int game = 0; game < games; game++) {
+                int gameID = game;
+                int index = i;
+                mailboxes.submit(gameID, () -> {
+                    if (running.get(gameID).incrementAndGet() != 1) {
+                        overlapped.set(true);
+                    }
+                    ran.get(gameID).add(index);
+                    running.get(gameID).decrementAndGet();
+                });
+            }
+        }
+        mailboxes.close();
+
+        Assertions.assertFalse(overlapped.get(), "Two commands for one game ran at once");
+        for (int game = 0; game < games; game++) {
+            List<Integer> order = ran.get(game);
+            Assertions.assertEquals(commands, order.size(), "Game " + game + " lost commands");
+            for (int i = 0; i < commands; i++) {
+                Assertions.assertEquals(i, order.get(i), "Game " + game + " ran a command out of order");
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Mailboxes - Games Run in Parallel")
+    public void gamesInParallel() throws InterruptedException {
+        CountDownLatch otherGameRan = new CountDownLatch(1);
+        CountDownLatch blockedGameDone = new CountDownLatch(1);
+        AtomicBoolean sawOtherGame = new AtomicBoolean();
+
+        // Game 1 holds its mailbox until game 2 has run, which can only happen in parallel
+        mailboxes.submit(1, () -> {
+            try {
+                sawOtherGame.set(otherGameRan.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            blockedGameDone.countDown();
+        });
+        mailboxes.submit(2, otherGameRan::countDown);
+
+        Assertions.assertTrue(blockedGameDone.await(10, TimeUnit.SECONDS), "Blocked game never finished");
+        Assertions.assertTrue(sawOtherGame.get(), "Game 2 waited behind game 1");
+    }
+
+    @Test
+    @DisplayName("Mailboxes - Submit After Close Rejected")
+    public void submitAfterClose() {
+        AtomicInteger ran = new AtomicInteger();
+        mailboxes.submit(1, ran::incrementAndGet);
+        mailboxes.close();
+        Assertions.assertEquals(1, ran.get());
+
+        // Every later submit must fail loudly, not queue behind a run that never comes
+        for (int attempt = 0; attempt < 2; attempt++) {
+            var e = Assertions.assertThrows(RejectedExecutionException.class,
+                    () -> mailboxes.submit(1, ran::incrementAndGet));
+            Assertions.assertEquals("Server is shutting down", e.getMessage());
+        }
+        Assertions.assertEquals(1, ran.get(), "Command ran after close");
+    }
+
+    @Test
+    @DisplayName("Mailboxes - Failed Command Doesn't Stop the Game")
+    public void failedCommand() throws InterruptedException {
+        CountDownLatch nextRan = new CountDownLatch(1);
+        mailboxes.submit(1, () -> {
+            throw new IllegalStateException("Expected by the test");
+        });
+        mailboxes.submit(1, nextRan::countDown);
+        Assertions.assertTrue(nextRan.await(5, TimeUnit.SECONDS), "Command after a failure never ran");
+    }
+}
@@ -0,0 +1,115 @@
+package chess;
+
+/**
+ * Square indexing and precomputed attack masks shared by the bitboard code
+ * <p>
+ * Squares are numbered 0-63 starting at row 1, column 1 (a1) and counting
+ * along each row, so bit {@code 8 * (row - 1) + (column - 1)} of a mask
+ * stands for that square.
+ */
+final class Bitboards {
+
+    static final long[] KNIGHT_ATTACKS = new long[64];
+    static final long[] KING_ATTACKS = new long[64];
+    static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    // Squares strictly between two squares on the same row, column or diagonal; 0 otherwise
+    static final long[][] BETWEEN = new long[64][64];
+
+    // a1 is a dark square, so the light squares are b1, d1, ..., a2, c2, ...
+    static final long LIGHT_SQUARES = 0x55AA55AA55AA55AAL;
+
+    static final int[][] KNIGHT_DIRECTIONS = { {1, 2}, {2, 1}, {1, -2}, {-2, 1}, {-1, 2}, {2, -1}, {-1, -2}, {-2, -1} };
+    static final int[][] KING_DIRECTIONS = { {1, 1}, {1, 0}, {1, -1}, {0, 1}, {0, -1}, {-1, 1}, {-1, 0}, {-1, -1} };
+    static final int[][] DIAGONAL_DIRECTIONS = { {1, 1}, {1, -1}, {-1, 1}, {-1, -1} };
+    static final int[][] AXIAL_DIRECTIONS = { {1, 0}, {-1, 0}, {0, 1}, {0, -1} };
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            KNIGHT_ATTACKS[square] = stepAttacks(square, KNIGHT_DIRECTIONS);
+            KING_ATTACKS[square] = stepAttacks(square, KING_DIRECTIONS);
+            PAWN_ATTACKS[ChessGame.TeamColor.WHITE.ordinal()][square] =
+                    stepAttacks(square, new int[][]{ {1, 1}, {1, -1} });
+            PAWN_ATTACKS[ChessGame.TeamColor.BLACK.ordinal()][square] =
+                    stepAttacks(square, new int[][]{ {-1, 1}, {-1, -1} });
+
+            for (int[] direction : KING_DIRECTIONS) {
+                long passed = 0L;
+                int row = row(square) + direction[0];
+                int col = column(square) + direction[1];
+                while (inBounds(row, col)) {
+                    BETWEEN[square][square(row, col)] = passed;
+                    passed |= 1L << square(row, col);
+                    row += direction[0];
+                    col += direction[1];
+                }
+            }
+        }
+    }
+
+    private Bitboards() {
+    }
+
+    static int square(int row, int col) {
+        return (row - 1) * 8 + (col - 1);
+    }
+
+    static int square(ChessPosition position) {
+        return square(position.getRow(), position.getColumn());
+    }
+
+    static int row(int square) {
+        return (square >>> 3) + 1;
+    }
+
+    static int column(int square) {
+        return (square & 7) + 1;
+    }
+
+    static boolean inBounds(int row, int col) {
+        return row < 9 && col < 9 && row > 0 && col > 0;
+    }
+
+    /**
+     * @return the index of the piece mask for the given color and type, 0-11
+     */
+    static int pieceIndex(ChessGame.TeamColor color, ChessPiece.PieceType type) {
+        return color.ordinal() * 6 + type.ordinal();
+    }
+
+    private static long stepAttacks(int square, int[][] directions) {
+        long attacks = 0L;
+        for (int[] direction : directions) {
+            int row = row(square) + direction[0];
+            int col = column(square) + direction[1];
+            if (inBounds(row, col)) {
+                attacks |= 1L << square(row, col);
+            }
+        }
+        return attacks;
+    }
+
+    /**
+     * Walks each ray outward from the square, stopping on (and including) the
+     * first occupied square
+     *
+     * @return mask of every square a slider on this square attacks
+     */
+    static long slidingAttacks(int square, long occupied, int[][] directions) {
+        long attacks = 0L;
+        for (int[] direction : directions) {
+            int row = row(square) + direction[0];
+            int col = column(square) + direction[1];
+            while (inBounds(row, col)) {
+                long bit = 1L << square(row, col);
+                attacks |= bit;
+                if ((occupied & bit) != 0) {
+                    break;
+                }
+                row += direction[0];
+                col += direction[1];
+            }
+        }
+        return attacks;
+    }
+}
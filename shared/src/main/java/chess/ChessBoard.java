@@ -1,7 +1,10 @@
 package chess;
 
+import com.google.gson.*;
+import com.google.gson.annotations.JsonAdapter;
+
+import java.lang.reflect.Type;
 import java.util.Arrays;
-import java.util.Objects;
 
 /**
  * A chessboard that can hold and rearrange chess pieces.
@@ -9,9 +12,10 @@ import java.util.Objects;
  * Note: You can add to this class, but you may not alter
  * signature of the existing methods.
  */
+@JsonAdapter(ChessBoard.Serializer.class)
 public class ChessBoard {
 
-    ChessPiece[][] board = { {null, null, null, null, null, null, null, null},
+    private ChessPiece[][] board = { {null, null, null, null, null, null, null, null},
                              {null, null, null, null, null, null, null, null},
                              {null, null, null, null, null, null, null, null},
                              {null, null, null, null, null, null, null, null},
@@ -20,9 +24,45 @@ public class ChessBoard {
                              {null, null, null, null, null, null, null, null},
                              {null, null, null, null, null, null, null, null} };
 
+    private static final ChessPiece.PieceType[] BACK_RANK = {
+            ChessPiece.PieceType.ROOK, ChessPiece.PieceType.KNIGHT, ChessPiece.PieceType.BISHOP,
+            ChessPiece.PieceType.QUEEN, ChessPiece.PieceType.KING, ChessPiece.PieceType.BISHOP,
+            ChessPiece.PieceType.KNIGHT, ChessPiece.PieceType.ROOK };
+
+    // One mask per color and piece type (see Bitboards.pieceIndex), kept in sync with board
+    private final transient long[] pieceBitboards = new long[12];
+    private final transient long[] colorBitboards = new long[2];
+    private transient long occupied;
+    private transient long zobristKey;
+    private final transient int[] kingSquares = {-1, -1};
+
     public ChessBoard() {
     }
 
+    /**
+     * Creates a board from the piece placement field of a FEN record, such as
+     * {@code rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR}. A full record is also
+     * accepted; everything after the placement is ignored.
+     *
+     * @param fen the FEN text
+     * @return the board it describes
+     * @throws IllegalArgumentException if the placement is malformed
+     */
+    public static ChessBoard fromFen(CharSequence fen) {
+        ChessBoard board = new ChessBoard();
+        Fen.readPlacement(fen, 0, board);
+        return board;
+    }
+
+    /**
+     * @return the piece placement field of this board in FEN
+     */
+    public String toFen() {
+        StringBuilder fen = new StringBuilder(72);
+        Fen.appendPlacement(this, fen);
+        return fen.toString();
+    }
+
     /**
      * Adds a chess piece to the chessboard
      *
@@ -30,7 +70,7 @@ public class ChessBoard {
      * @param piece    the piece to add
      */
     public void addPiece(ChessPosition position, ChessPiece piece) {
-        this.board[8 - position.getRow()][position.getColumn() - 1] = piece;
+        setPiece(Bitboards.square(position), piece);
     }
 
     /**
@@ -50,42 +90,162 @@ public class ChessBoard {
      * (How the game of chess normally starts)
      */
     public void resetBoard() {
-        this.board = new ChessPiece[][]{ {new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.ROOK),
-                new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.KNIGHT),
-                new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.BISHOP),
-                new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.QUEEN),
-                new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.KING),
-                new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.BISHOP),
-                new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.KNIGHT),
-                new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.ROOK)},
-                {new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.PAWN)},
-                {null, null, null, null, null, null, null, null},
-                {null, null, null, null, null, null, null, null},
-                {null, null, null, null, null, null, null, null},
-                {null, null, null, null, null, null, null, null},
-                {new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.PAWN),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.PAWN)},
-                {new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.ROOK),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.KNIGHT),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.BISHOP),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.QUEEN),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.KING),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.BISHOP),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.KNIGHT),
-                        new ChessPiece(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.ROOK)} };
+        clear();
+        for (int col = 1; col < 9; col++) {
+            setPiece(Bitboards.square(1, col), ChessPiece.of(ChessGame.TeamColor.WHITE, BACK_RANK[col - 1]));
+            setPiece(Bitboards.square(2, col), ChessPiece.of(ChessGame.TeamColor.WHITE, ChessPiece.PieceType.PAWN));
+            setPiece(Bitboards.square(7, col), ChessPiece.of(ChessGame.TeamColor.BLACK, ChessPiece.PieceType.PAWN));
+            setPiece(Bitboards.square(8, col), ChessPiece.of(ChessGame.TeamColor.BLACK, BACK_RANK[col - 1]));
+        }
+    }
+
+    private void clear() {
+        board = new ChessPiece[8][8];
+        Arrays.fill(pieceBitboards, 0L);
+        Arrays.fill(colorBitboards, 0L);
+        occupied = 0L;
+        zobristKey = 0L;
+        Arrays.fill(kingSquares, -1);
+    }
+
+    /**
+     * @return the piece on the given square (0-63), or null if it is empty
+     */
+    ChessPiece pieceAt(int square) {
+        return board[7 - (square >>> 3)][square & 7];
+    }
+
+    /**
+     * Places a piece on (or clears, if null) the given square, keeping the
+     * bitboards in sync with the array
+     */
+    void setPiece(int square, ChessPiece piece) {
+        int rowIndex = 7 - (square >>> 3);
+        int colIndex = square & 7;
+        ChessPiece previous = board[rowIndex][colIndex];
+        board[rowIndex][colIndex] = piece;
+
+        long bit = 1L << square;
+        if (previous != null) {
+            pieceBitboards[Bitboards.pieceIndex(previous.getTeamColor(), previous.getPieceType())] &= ~bit;
+            colorBitboards[previous.getTeamColor().ordinal()] &= ~bit;
+            occupied &= ~bit;
+            zobristKey ^= Zobrist.pieceKey(previous, square);
+        }
+        if (piece != null) {
+            pieceBitboards[Bitboards.pieceIndex(piece.getTeamColor(), piece.getPieceType())] |= bit;
+            colorBitboards[piece.getTeamColor().ordinal()] |= bit;
+            occupied |= bit;
+            zobristKey ^= Zobrist.pieceKey(piece, square);
+        }
+
+        if (previous != null && previous.getPieceType() == ChessPiece.PieceType.KING) {
+            updateKingSquare(previous.getTeamColor());
+        }
+        if (piece != null && piece.getPieceType() == ChessPiece.PieceType.KING) {
+            updateKingSquare(piece.getTeamColor());
+        }
+    }
+
+    private void updateKingSquare(ChessGame.TeamColor color) {
+        long kings = pieces(color, ChessPiece.PieceType.KING);
+        kingSquares[color.ordinal()] = kings == 0 ? -1 : Long.numberOfTrailingZeros(kings);
+    }
+
+    /**
+     * @return the square (0-63) of the given color's king, or -1 if it has none
+     */
+    int kingSquare(ChessGame.TeamColor color) {
+        return kingSquares[color.ordinal()];
+    }
+
+    /**
+     * Determines if any piece of the given color attacks a position
+     *
+     * @param position the position to check
+     * @param byColor  the color of the attacking pieces
+     * @return True if a piece of that color could capture on the position
+     */
+    public boolean isSquareAttacked(ChessPosition position, ChessGame.TeamColor byColor) {
+        return isSquareAttacked(Bitboards.square(position), byColor);
+    }
+
+    boolean isSquareAttacked(int square, ChessGame.TeamColor byColor) {
+        return isSquareAttacked(square, byColor, occupied);
+    }
+
+    /**
+     * Looks outward from the square for each kind of attacker instead of
+     * generating the attacker's moves: a pawn, knight or king can only attack
+     * from the squares that same piece would attack from here, and a slider
+     * only from the end of one of this square's rays
+     *
+     * @param occupied the occupancy to trace slider rays through, which may
+     *                 differ from the board's to ask about a position after a move
+     */
+    boolean isSquareAttacked(int square, ChessGame.TeamColor byColor, long occupied) {
+        int by = byColor.ordinal();
+        int base = by * 6;
+        if ((Bitboards.PAWN_ATTACKS[by ^ 1][square] & pieceBitboards[base + ChessPiece.PieceType.PAWN.ordinal()]) != 0
+                || (Bitboards.KNIGHT_ATTACKS[square] & pieceBitboards[base + ChessPiece.PieceType.KNIGHT.ordinal()]) != 0
+                || (Bitboards.KING_ATTACKS[square] & pieceBitboards[base + ChessPiece.PieceType.KING.ordinal()]) != 0) {
+            return true;
+        }
+        long queens = pieceBitboards[base + ChessPiece.PieceType.QUEEN.ordinal()];
+        long diagonal = pieceBitboards[base + ChessPiece.PieceType.BISHOP.ordinal()] | queens;
+        if (diagonal != 0 && (MagicAttacks.bishopAttacks(square, occupied) & diagonal) != 0) {
+            return true;
+        }
+        long axial = pieceBitboards[base + ChessPiece.PieceType.ROOK.ordinal()] | queens;
+        return axial != 0 && (MagicAttacks.rookAttacks(square, occupied) & axial) != 0;
+    }
+
+    /**
+     * Same probe as {@link #isSquareAttacked(int, ChessGame.TeamColor, long)},
+     * but collects every attacker instead of stopping at the first
+     *
+     * @return mask of the squares holding pieces of the given color that attack the square
+     */
+    long attackersTo(int square, ChessGame.TeamColor byColor, long occupied) {
+        int by = byColor.ordinal();
+        int base = by * 6;
+        long queens = pieceBitboards[base + ChessPiece.PieceType.QUEEN.ordinal()];
+        return (Bitboards.PAWN_ATTACKS[by ^ 1][square] & pieceBitboards[base + ChessPiece.PieceType.PAWN.ordinal()])
+                | (Bitboards.KNIGHT_ATTACKS[square] & pieceBitboards[base + ChessPiece.PieceType.KNIGHT.ordinal()])
+                | (Bitboards.KING_ATTACKS[square] & pieceBitboards[base + ChessPiece.PieceType.KING.ordinal()])
+                | (MagicAttacks.bishopAttacks(square, occupied)
+                        & (pieceBitboards[base + ChessPiece.PieceType.BISHOP.ordinal()] | queens))
+                | (MagicAttacks.rookAttacks(square, occupied)
+                        & (pieceBitboards[base + ChessPiece.PieceType.ROOK.ordinal()] | queens));
+    }
+
+    /**
+     * @return mask of the squares holding pieces of the given color and type
+     */
+    long pieces(ChessGame.TeamColor color, ChessPiece.PieceType type) {
+        return pieceBitboards[Bitboards.pieceIndex(color, type)];
+    }
+
+    /**
+     * @return mask of the squares holding pieces of the given color
+     */
+    long pieces(ChessGame.TeamColor color) {
+        return colorBitboards[color.ordinal()];
+    }
+
+    /**
+     * @return mask of every occupied square
+     */
+    long occupied() {
+        return occupied;
+    }
+
+    /**
+     * @return the Zobrist key of the pieces on this board, kept up to date by
+     * every change to the board
+     */
+    public long getZobristKey() {
+        return zobristKey;
     }
 
     @Override
@@ -94,11 +254,41 @@ public class ChessBoard {
             return false;
         }
         ChessBoard that = (ChessBoard) o;
-        return Objects.deepEquals(board, that.board);
+        return Arrays.equals(pieceBitboards, that.pieceBitboards);
     }
 
     @Override
     public int hashCode() {
-        return Arrays.deepHashCode(board);
+        return Long.hashCode(zobristKey);
+    }
+
+    /**
+     * Serializes only the piece array so the JSON form stays the same as before
+     * the bitboards were added, and rebuilds the bitboards when reading it back
+     */
+    static class Serializer implements JsonSerializer<ChessBoard>, JsonDeserializer<ChessBoard> {
+        @Override
+        public JsonElement serialize(ChessBoard src, Type typeOfSrc, JsonSerializationContext context) {
+            JsonObject json = new JsonObject();
+            json.add("board", context.serialize(src.board));
+            return json;
+        }
+
+        @Override
+        public ChessBoard deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
+                throws JsonParseException {
+            ChessPiece[][] cells = context.deserialize(json.getAsJsonObject().get("board"), ChessPiece[][].class);
+            ChessBoard board = new ChessBoard();
+            if (cells != null) {
+                for (int rowIndex = 0; rowIndex < 8; rowIndex++) {
+                    for (int colIndex = 0; colIndex < 8; colIndex++) {
+                        ChessPiece cell = cells[rowIndex][colIndex];
+                        board.setPiece(Bitboards.square(8 - rowIndex, colIndex + 1),
+                                cell == null ? null : ChessPiece.of(cell.getTeamColor(), cell.getPieceType()));
+                    }
+                }
+            }
+            return board;
+        }
     }
 }
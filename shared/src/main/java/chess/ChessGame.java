@@ -10,15 +10,92 @@ import java.util.*;
  */
 public class ChessGame {
 
+    static final int WHITE_KINGSIDE = 1;
+    static final int WHITE_QUEENSIDE = 2;
+    static final int BLACK_KINGSIDE = 4;
+    static final int BLACK_QUEENSIDE = 8;
+    static final int ALL_CASTLING_RIGHTS = WHITE_KINGSIDE | WHITE_QUEENSIDE | BLACK_KINGSIDE | BLACK_QUEENSIDE;
+
+    // Castling rights that survive a move touching each square; only king and rook home squares clear any
+    private static final int[] CASTLING_MASK = new int[64];
+
+    // Layout of an undo record: every field needed to take a move back, packed into one long
+    private static final int FROM_SHIFT = 0;
+    private static final int TO_SHIFT = 6;
+    private static final int MOVED_SHIFT = 12;
+    private static final int CAPTURED_SHIFT = 16;
+    private static final int CASTLING_SHIFT = 20;
+    private static final int EN_PASSANT_SHIFT = 24;
+    private static final int TURN_SHIFT = 31;
+    private static final long EN_PASSANT_RECORD = 1L << 32;
+    private static final long CASTLING_RECORD = 1L << 33;
+    private static final int HALFMOVE_SHIFT = 34;
+
+    private static final TeamColor[] COLORS = TeamColor.values();
+
+    // Plies without a capture or pawn move, and occurrences of a position,
+    // that end the game as a draw without a claim (FIDE 9.6)
+    private static final int AUTOMATIC_DRAW_HALFMOVES = 150;
+    private static final int AUTOMATIC_DRAW_REPETITIONS = 5;
+
+    static {
+        Arrays.fill(CASTLING_MASK, ALL_CASTLING_RIGHTS);
+        CASTLING_MASK[Bitboards.square(1, 1)] &= ~WHITE_QUEENSIDE;
+        CASTLING_MASK[Bitboards.square(1, 5)] &= ~(WHITE_KINGSIDE | WHITE_QUEENSIDE);
+        CASTLING_MASK[Bitboards.square(1, 8)] &= ~WHITE_KINGSIDE;
+        CASTLING_MASK[Bitboards.square(8, 1)] &= ~BLACK_QUEENSIDE;
+        CASTLING_MASK[Bitboards.square(8, 5)] &= ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+        CASTLING_MASK[Bitboards.square(8, 8)] &= ~BLACK_KINGSIDE;
+    }
+
     private TeamColor teamTurn;
     private ChessBoard board = new ChessBoard();
     private boolean over;
+    private int castlingRights;
+    private int enPassantSquare;
+    private int halfmoveClock;
+    private int fullmoveNumber;
+
+    private transient long[] undoStack = new long[64];
+    private transient long[] keyHistory = new long[64];
+    private transient int undoCount;
+    private final transient MoveList moveBuffer = new MoveList();
+    private final transient MoveGenerator generator = new MoveGenerator();
+    private transient GameStatus cachedStatus;
+    private transient long cachedStatusKey;
+    private transient int cachedStatusPly;
 
 
     public ChessGame() {
         teamTurn = TeamColor.WHITE;
         board.resetBoard();
         over = false;
+        castlingRights = ALL_CASTLING_RIGHTS;
+        enPassantSquare = -1;
+        fullmoveNumber = 1;
+    }
+
+    /**
+     * Creates a game from a FEN record, such as
+     * {@code rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1}
+     *
+     * @param fen the FEN text; the halfmove clock and fullmove number may be left off
+     * @return the game it describes
+     * @throws IllegalArgumentException if the record is malformed
+     */
+    public static ChessGame fromFen(CharSequence fen) {
+        ChessGame game = new ChessGame();
+        Fen.read(fen, game);
+        return game;
+    }
+
+    /**
+     * @return this game's position as a FEN record
+     */
+    public String toFen() {
+        StringBuilder fen = new StringBuilder(90);
+        Fen.append(this, castlingRights, enPassantSquare, halfmoveClock, fullmoveNumber, fen);
+        return fen.toString();
     }
 
     /**
@@ -46,6 +123,43 @@ public class ChessGame {
         BLACK
     }
 
+    /**
+     * The state of a game from the point of view of the team whose turn it is
+     * <p>
+     * Only the draws that end a game without either player claiming them are
+     * reported: the 75-move rule and fivefold repetition, not the fifty-move
+     * rule or threefold repetition, which a player has to claim.
+     */
+    public enum GameStatus {
+        ONGOING,
+        CHECK,
+        CHECKMATE,
+        STALEMATE,
+        /**
+         * 75 moves by each side without a capture or pawn move
+         */
+        DRAW_SEVENTY_FIVE_MOVE,
+        /**
+         * The same position with the same side to move for the fifth time
+         */
+        DRAW_REPETITION,
+        DRAW_INSUFFICIENT_MATERIAL;
+
+        /**
+         * @return True if no more moves can be made
+         */
+        public boolean isGameOver() {
+            return this != ONGOING && this != CHECK;
+        }
+
+        /**
+         * @return True if the game ended without a winner
+         */
+        public boolean isDraw() {
+            return isGameOver() && this != CHECKMATE;
+        }
+    }
+
     /**
      * Gets a valid moves for a piece at the given location
      *
@@ -57,27 +171,30 @@ public class ChessGame {
         ChessPiece piece = board.getPiece(startPosition);
         if (piece == null) {return null;}
         else {
-            Collection<ChessMove> possibleMoves = piece.pieceMoves(board, startPosition);
-            Collection<ChessMove> validMoves = new Vector<>();
-            TeamColor movingTeam = piece.getTeamColor();
-            for (ChessMove move : possibleMoves) {
-                ChessPiece movedPiece = board.getPiece(move.getStartPosition());
-                ChessPiece capturedPiece = board.getPiece(move.getEndPosition());
-
-                board.addPiece(move.getStartPosition(), null);
-                board.addPiece(move.getEndPosition(), movedPiece);
-
-                boolean inCheck = isInCheck(movingTeam);
+            moveBuffer.clear();
+            prepareGenerator(piece.getTeamColor());
+            generator.addMoves(Bitboards.square(startPosition), moveBuffer);
+            return moveBuffer.toChessMoves();
+        }
+    }
 
-                board.addPiece(move.getStartPosition(), movedPiece);
-                board.addPiece(move.getEndPosition(), capturedPiece);
+    /**
+     * Sets the generator up for a team; en passant is only open to the team
+     * whose turn it is, right after the other team's double push
+     */
+    private void prepareGenerator(TeamColor color) {
+        generator.prepare(board, color, castlingRights, color == teamTurn ? enPassantSquare : -1);
+    }
 
-                if (!inCheck) {
-                    validMoves.add(move);
-                }
-            }
-            return validMoves;
-        }
+    /**
+     * Fills the list with every legal move for the team whose turn it is
+     *
+     * @param moves list to fill, cleared first
+     */
+    public void legalMoves(MoveList moves) {
+        moves.clear();
+        prepareGenerator(teamTurn);
+        generator.addAllMoves(moves);
     }
 
     /**
@@ -87,18 +204,139 @@ public class ChessGame {
      * @throws InvalidMoveException if move is invalid
      */
     public void makeMove(ChessMove move) throws InvalidMoveException {
-        if (board.getPiece(move.getStartPosition()) == null) {throw new InvalidMoveException();}
-        Collection<ChessMove> validMoves = validMoves(move.getStartPosition());
-        if (!validMoves.contains(move)) {throw new InvalidMoveException();}
+        // Off-board squares would pack into real ones
+        if (!ChessMove.onBoard(move.getStartPosition()) || !ChessMove.onBoard(move.getEndPosition())) {
+            throw new InvalidMoveException();
+        }
         ChessPiece piece = board.getPiece(move.getStartPosition());
-        TeamColor color = piece.getTeamColor() == TeamColor.WHITE ? TeamColor.BLACK : TeamColor.WHITE;
-        if (move.getPromotionPiece() != null) {
-            piece = new ChessPiece(piece.getTeamColor(), move.getPromotionPiece());
+        if (piece == null) {throw new InvalidMoveException();}
+
+        // Find the generated move so the flags the board needs come along with it
+        int requested = Moves.encode(move);
+        int found = -1;
+        moveBuffer.clear();
+        prepareGenerator(piece.getTeamColor());
+        generator.addMoves(Moves.from(requested), moveBuffer);
+        for (int i = 0; i < moveBuffer.size(); i++) {
+            if (Moves.withoutFlags(moveBuffer.get(i)) == requested) {
+                found = moveBuffer.get(i);
+                break;
+            }
+        }
+        if (found == -1) {throw new InvalidMoveException();}
+        if (getTeamTurn() != piece.getTeamColor()) {throw new InvalidMoveException();}
+        playMove(found);
+    }
+
+    /**
+     * Takes back the last move made on this game, restoring the board, turn,
+     * castling rights, en passant square and halfmove clock
+     *
+     * @throws IllegalStateException if there is no move to take back
+     */
+    public void unmakeMove() {
+        if (undoCount == 0) {
+            throw new IllegalStateException("No move to undo");
+        }
+        long record = undoStack[--undoCount];
+        int from = (int) (record >>> FROM_SHIFT) & 0x3F;
+        int to = (int) (record >>> TO_SHIFT) & 0x3F;
+        int captured = (int) (record >>> CAPTURED_SHIFT) & 0xF;
+        ChessPiece capturedPiece = captured == 0 ? null : ChessPiece.of(captured - 1);
+
+        board.setPiece(from, ChessPiece.of((int) (record >>> MOVED_SHIFT) & 0xF));
+        if ((record & EN_PASSANT_RECORD) != 0) {
+            board.setPiece(to, null);
+            board.setPiece(enPassantCaptureSquare(from, to), capturedPiece);
+        } else {
+            board.setPiece(to, capturedPiece);
+        }
+        if ((record & CASTLING_RECORD) != 0) {
+            int rookFrom = castlingRookSquare(from, to);
+            int rookTo = (from + to) / 2;
+            board.setPiece(rookFrom, board.pieceAt(rookTo));
+            board.setPiece(rookTo, null);
+        }
+
+        castlingRights = (int) (record >>> CASTLING_SHIFT) & 0xF;
+        enPassantSquare = ((int) (record >>> EN_PASSANT_SHIFT) & 0x7F) - 1;
+        teamTurn = COLORS[(int) (record >>> TURN_SHIFT) & 1];
+        halfmoveClock = (int) (record >>> HALFMOVE_SHIFT);
+        if (teamTurn == TeamColor.BLACK) {
+            fullmoveNumber--;
+        }
+        // The same position at the same depth can be reached again by another
+        // path, with a different clock and history, so the cached status can't be trusted
+        cachedStatus = null;
+    }
+
+    /**
+     * Moves a piece without checking that the move is legal, recording what
+     * is needed to take it back with {@link #unmakeMove()}
+     *
+     * @param move the move, encoded by {@link Moves}
+     */
+    void playMove(int move) {
+        int from = Moves.from(move);
+        int to = Moves.to(move);
+        ChessPiece.PieceType promotion = Moves.promotion(move);
+        boolean enPassant = (move & Moves.EN_PASSANT) != 0;
+        boolean castling = (move & Moves.CASTLING) != 0;
+        int capturedSquare = enPassant ? enPassantCaptureSquare(from, to) : to;
+        ChessPiece moved = board.pieceAt(from);
+        ChessPiece captured = board.pieceAt(capturedSquare);
+        int movedIndex = Bitboards.pieceIndex(moved.getTeamColor(), moved.getPieceType());
+
+        if (undoCount == undoStack.length) {
+            undoStack = Arrays.copyOf(undoStack, undoCount * 2);
+            keyHistory = Arrays.copyOf(keyHistory, undoCount * 2);
+        }
+        keyHistory[undoCount] = getZobristKey();
+        undoStack[undoCount++] = ((long) from << FROM_SHIFT)
+                | ((long) to << TO_SHIFT)
+                | ((long) movedIndex << MOVED_SHIFT)
+                | ((long) (captured == null ? 0 : Bitboards.pieceIndex(captured.getTeamColor(), captured.getPieceType()) + 1) << CAPTURED_SHIFT)
+                | ((long) castlingRights << CASTLING_SHIFT)
+                | ((long) (enPassantSquare + 1) << EN_PASSANT_SHIFT)
+                | ((long) teamTurn.ordinal() << TURN_SHIFT)
+                | (enPassant ? EN_PASSANT_RECORD : 0L)
+                | (castling ? CASTLING_RECORD : 0L)
+                | ((long) halfmoveClock << HALFMOVE_SHIFT);
+
+        board.setPiece(from, null);
+        if (enPassant) {
+            board.setPiece(capturedSquare, null);
+        }
+        board.setPiece(to, promotion == null ? moved : ChessPiece.of(moved.getTeamColor(), promotion));
+        if (castling) {
+            int rookFrom = castlingRookSquare(from, to);
+            board.setPiece((from + to) / 2, board.pieceAt(rookFrom));
+            board.setPiece(rookFrom, null);
+        }
+
+        boolean pawnMove = moved.getPieceType() == ChessPiece.PieceType.PAWN;
+        halfmoveClock = (pawnMove || captured != null) ? 0 : halfmoveClock + 1;
+        if (teamTurn == TeamColor.BLACK) {
+            fullmoveNumber++;
         }
-        if (getTeamTurn() == color) {throw new InvalidMoveException();}
-        board.board[8 - move.getStartPosition().getRow()][move.getStartPosition().getColumn() - 1] = null;
-        board.board[8 - move.getEndPosition().getRow()][move.getEndPosition().getColumn() - 1] = piece;
-        setTeamTurn(color);
+        castlingRights &= CASTLING_MASK[from] & CASTLING_MASK[to];
+        enPassantSquare = (move & Moves.DOUBLE_PUSH) != 0 ? (from + to) / 2 : -1;
+        teamTurn = opponent(moved.getTeamColor());
+    }
+
+    /**
+     * @return the square of the pawn taken by an en passant capture, which is
+     * on the capturing pawn's row and the destination's column
+     */
+    private static int enPassantCaptureSquare(int from, int to) {
+        return (from & 0x38) | (to & 7);
+    }
+
+    /**
+     * @return the starting square of the rook that moves when the king castles from one square to another
+     */
+    private static int castlingRookSquare(int kingFrom, int kingTo) {
+        return kingTo > kingFrom ? kingFrom + 3 : kingFrom - 4;
     }
 
     /**
@@ -108,49 +346,42 @@ public class ChessGame {
      * @return True if the specified team is in check
      */
     public boolean isInCheck(TeamColor teamColor) {
-        ChessPosition kingPos = null;
-        int rowN = 8;
-        int colN;
-        for (ChessPiece[] row : board.board) {
-            colN = 1;
-            for (ChessPiece piece : row) {
-                if (piece != null && piece.getPieceType() == ChessPiece.PieceType.KING && piece.getTeamColor() == teamColor) {
-                    kingPos = new ChessPosition(rowN, colN);
-                    break;
-                }
-                colN++;
-            }
-            rowN--;
-        }
+        int king = board.kingSquare(teamColor);
+        return king >= 0 && board.isSquareAttacked(king, opponent(teamColor));
+    }
 
+    /**
+     * Gets the number of half-moves played since the starting position,
+     * worked out from the fullmove number and side to move so it survives
+     * serialization
+     *
+     * @return 0 for a new game, 1 after White's first move, and so on
+     */
+    public int getPly() {
+        return (fullmoveNumber - 1) * 2 + (teamTurn == TeamColor.BLACK ? 1 : 0);
+    }
 
-        for (rowN = 1; rowN < 9; rowN++) {
-            for (colN = 1; colN < 9; colN++) {
-                ChessPosition position = new ChessPosition(rowN, colN);
-                ChessPiece piece = board.getPiece(position);
-                if (piece == null || piece.getTeamColor() == teamColor) {
-                    continue;
-                }
-                ChessPosition startPos = new ChessPosition(rowN, colN);
-                Collection<ChessMove> moves = piece.pieceMoves(board, startPos);
-                for (ChessMove move : moves) {if (move.getEndPosition().equals(kingPos)) {return true;}}
-            }
+    /**
+     * Gets the Zobrist key of the current position: the board's incrementally
+     * maintained key combined with the side to move, the castling rights and
+     * the en passant file (only when a pawn could actually capture there)
+     *
+     * @return 64-bit key identifying this position
+     */
+    public long getZobristKey() {
+        long key = board.getZobristKey() ^ Zobrist.CASTLING_KEYS[castlingRights];
+        if (teamTurn == TeamColor.BLACK) {
+            key ^= Zobrist.BLACK_TO_MOVE_KEY;
         }
-
-        return false;
+        if (enPassantSquare >= 0 && (Bitboards.PAWN_ATTACKS[opponent(teamTurn).ordinal()][enPassantSquare]
+                & board.pieces(teamTurn, ChessPiece.PieceType.PAWN)) != 0) {
+            key ^= Zobrist.EN_PASSANT_KEYS[enPassantSquare & 7];
+        }
+        return key;
     }
 
-    private List<ChessPosition> getPieces(TeamColor color) {
-        List<ChessPosition> pieces = new ArrayList<>();
-        for (int row = 1; row < 9; row++) {
-            for (int col = 1; col < 9; col++) {
-                ChessPosition position = new ChessPosition(row, col);
-                if (board.getPiece(position) != null && board.getPiece(position).getTeamColor() == color) {
-                    pieces.add(position);
-                }
-            }
-        }
-        return pieces;
+    private static TeamColor opponent(TeamColor color) {
+        return color == TeamColor.WHITE ? TeamColor.BLACK : TeamColor.WHITE;
     }
 
     /**
@@ -160,19 +391,11 @@ public class ChessGame {
      * @return True if the specified team is in checkmate
      */
     public boolean isInCheckmate(TeamColor teamColor) {
-
-        if (!isInCheck(teamColor)) {
-            return false;
-        }
-
-        List<ChessPosition> pieces = getPieces(teamColor);
-
-        for (ChessPosition position : pieces) {
-            if (!validMoves(position).isEmpty()) {
-                return false;
-            }
+        if (teamColor == teamTurn) {
+            return getStatus() == GameStatus.CHECKMATE;
         }
-        return true;
+        prepareGenerator(teamColor);
+        return generator.inCheck() && !generator.hasAnyMove(moveBuffer);
     }
 
     /**
@@ -183,18 +406,86 @@ public class ChessGame {
      * @return True if the specified team is in stalemate, otherwise false
      */
     public boolean isInStalemate(TeamColor teamColor) {
-        if (isInCheckmate(teamColor)) {
-            return false;
+        if (teamColor == teamTurn) {
+            return getStatus() == GameStatus.STALEMATE;
+        }
+        prepareGenerator(teamColor);
+        return !generator.inCheck() && !generator.hasAnyMove(moveBuffer);
+    }
+
+    /**
+     * Works out checkmate, stalemate, check and the automatic draws for the
+     * team whose turn it is. Moves are only generated until the first legal
+     * one, and the result is kept until the position changes.
+     *
+     * @return the status of the game for the team to move
+     */
+    public GameStatus getStatus() {
+        long key = getZobristKey();
+        if (cachedStatus != null && cachedStatusKey == key && cachedStatusPly == undoCount) {
+            return cachedStatus;
+        }
+        cachedStatus = computeStatus();
+        cachedStatusKey = key;
+        cachedStatusPly = undoCount;
+        return cachedStatus;
+    }
+
+    private GameStatus computeStatus() {
+        prepareGenerator(teamTurn);
+        boolean inCheck = generator.inCheck();
+        if (!generator.hasAnyMove(moveBuffer)) {
+            return inCheck ? GameStatus.CHECKMATE : GameStatus.STALEMATE;
+        }
+        if (hasInsufficientMaterial()) {
+            return GameStatus.DRAW_INSUFFICIENT_MATERIAL;
+        }
+        if (halfmoveClock >= AUTOMATIC_DRAW_HALFMOVES) {
+            return GameStatus.DRAW_SEVENTY_FIVE_MOVE;
+        }
+        if (isFivefoldRepetition()) {
+            return GameStatus.DRAW_REPETITION;
         }
+        return inCheck ? GameStatus.CHECK : GameStatus.ONGOING;
+    }
 
-        List<ChessPosition> pieces = getPieces(teamColor);
+    /**
+     * Neither side can mate with only kings plus at most one minor piece, or
+     * with only bishops that all stand on the same square color
+     */
+    private boolean hasInsufficientMaterial() {
+        long heavy = 0L;
+        long knights = 0L;
+        long bishops = 0L;
+        for (TeamColor color : COLORS) {
+            heavy |= board.pieces(color, ChessPiece.PieceType.PAWN) | board.pieces(color, ChessPiece.PieceType.ROOK)
+                    | board.pieces(color, ChessPiece.PieceType.QUEEN);
+            knights |= board.pieces(color, ChessPiece.PieceType.KNIGHT);
+            bishops |= board.pieces(color, ChessPiece.PieceType.BISHOP);
+        }
+        if (heavy != 0) {
+            return false;
+        }
+        if (Long.bitCount(knights | bishops) <= 1) {
+            return true;
+        }
+        return knights == 0 && ((bishops & Bitboards.LIGHT_SQUARES) == 0 || (bishops & ~Bitboards.LIGHT_SQUARES) == 0);
+    }
 
-        for (ChessPosition position : pieces) {
-            if (!validMoves(position).isEmpty()) {
-                return false;
+    /**
+     * Looks back through the positions since the last capture or pawn move,
+     * which are the only ones that can repeat, with the same side to move
+     */
+    private boolean isFivefoldRepetition() {
+        long key = getZobristKey();
+        int earliest = Math.max(0, undoCount - halfmoveClock);
+        int repeats = 0;
+        for (int ply = undoCount - 2; ply >= earliest; ply -= 2) {
+            if (keyHistory[ply] == key && ++repeats == AUTOMATIC_DRAW_REPETITIONS - 1) {
+                return true;
             }
         }
-        return true;
+        return false;
     }
 
     /**
@@ -204,6 +495,64 @@ public class ChessGame {
      */
     public void setBoard(ChessBoard board) {
         this.board = board;
+        castlingRights = castlingRightsFor(board);
+        enPassantSquare = -1;
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
+        undoCount = 0;
+        cachedStatus = null;
+    }
+
+    int castlingRights() {
+        return castlingRights;
+    }
+
+    int enPassantSquare() {
+        return enPassantSquare;
+    }
+
+    int halfmoveClock() {
+        return halfmoveClock;
+    }
+
+    int fullmoveNumber() {
+        return fullmoveNumber;
+    }
+
+    /**
+     * Overrides the state a board alone can't express, for positions loaded
+     * from a description such as FEN
+     */
+    void setPositionState(int castlingRights, int enPassantSquare, int halfmoveClock, int fullmoveNumber) {
+        this.castlingRights = castlingRights;
+        this.enPassantSquare = enPassantSquare;
+        this.halfmoveClock = halfmoveClock;
+        this.fullmoveNumber = fullmoveNumber;
+        cachedStatus = null;
+    }
+
+    /**
+     * A board set up from scratch carries no history, so assume castling is
+     * still allowed wherever a king and rook sit on their starting squares
+     */
+    private static int castlingRightsFor(ChessBoard board) {
+        int rights = 0;
+        for (TeamColor color : COLORS) {
+            int homeRow = color == TeamColor.WHITE ? 1 : 8;
+            int shift = color == TeamColor.WHITE ? 0 : 2;
+            ChessPiece king = ChessPiece.of(color, ChessPiece.PieceType.KING);
+            if (!king.equals(board.pieceAt(Bitboards.square(homeRow, 5)))) {
+                continue;
+            }
+            ChessPiece rook = ChessPiece.of(color, ChessPiece.PieceType.ROOK);
+            if (rook.equals(board.pieceAt(Bitboards.square(homeRow, 8)))) {
+                rights |= WHITE_KINGSIDE << shift;
+            }
+            if (rook.equals(board.pieceAt(Bitboards.square(homeRow, 1)))) {
+                rights |= WHITE_QUEENSIDE << shift;
+            }
+        }
+        return rights;
     }
 
     /**
@@ -234,6 +583,10 @@ public class ChessGame {
 
     @Override
     public int hashCode() {
-        return Objects.hash(teamTurn, board);
+        long key = board.getZobristKey();
+        if (teamTurn == TeamColor.BLACK) {
+            key ^= Zobrist.BLACK_TO_MOVE_KEY;
+        }
+        return Long.hashCode(key);
     }
 }
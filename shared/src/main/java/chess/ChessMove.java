@@ -10,9 +10,20 @@ import java.util.Objects;
  */
 public class ChessMove {
 
-    ChessPosition startPosition;
-    ChessPosition endPosition;
-    ChessPiece.PieceType promotionPiece;
+    // Every move that isn't a promotion, indexed by start square * 64 + end square
+    private static final ChessMove[] MOVES = new ChessMove[64 * 64];
+
+    static {
+        for (int from = 0; from < 64; from++) {
+            for (int to = 0; to < 64; to++) {
+                MOVES[from * 64 + to] = new ChessMove(ChessPosition.of(from), ChessPosition.of(to), null);
+            }
+        }
+    }
+
+    private final ChessPosition startPosition;
+    private final ChessPosition endPosition;
+    private final ChessPiece.PieceType promotionPiece;
 
     public ChessMove(ChessPosition startPosition, ChessPosition endPosition,
                      ChessPiece.PieceType promotionPiece) {
@@ -21,6 +32,35 @@ public class ChessMove {
         this.promotionPiece = promotionPiece;
     }
 
+    /**
+     * Gets a shared instance for moves that aren't promotions instead of
+     * allocating a new one
+     *
+     * @return a move equal to {@code new ChessMove(startPosition, endPosition, promotionPiece)}
+     */
+    public static ChessMove of(ChessPosition startPosition, ChessPosition endPosition,
+                               ChessPiece.PieceType promotionPiece) {
+        if (promotionPiece != null || !onBoard(startPosition) || !onBoard(endPosition)) {
+            return new ChessMove(startPosition, endPosition, promotionPiece);
+        }
+        return MOVES[Bitboards.square(startPosition) * 64 + Bitboards.square(endPosition)];
+    }
+
+    /**
+     * Same as {@link #of(ChessPosition, ChessPosition, ChessPiece.PieceType)} for
+     * squares numbered 0-63 as in {@link Bitboards}
+     */
+    static ChessMove of(int from, int to, ChessPiece.PieceType promotionPiece) {
+        if (promotionPiece != null) {
+            return new ChessMove(ChessPosition.of(from), ChessPosition.of(to), promotionPiece);
+        }
+        return MOVES[from * 64 + to];
+    }
+
+    static boolean onBoard(ChessPosition position) {
+        return position != null && Bitboards.inBounds(position.getRow(), position.getColumn());
+    }
+
     /**
      * @return ChessPosition of starting location
      */
@@ -57,6 +97,8 @@ public class ChessMove {
 
     @Override
     public int hashCode() {
-        return Objects.hash(startPosition, endPosition, promotionPiece);
+        int result = Objects.hashCode(startPosition);
+        result = 31 * result + Objects.hashCode(endPosition);
+        return 31 * result + Objects.hashCode(promotionPiece);
     }
 }
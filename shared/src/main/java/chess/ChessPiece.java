@@ -1,9 +1,6 @@
 package chess;
 
-import java.awt.*;
 import java.util.*;
-import java.util.List;
-import java.util.function.Function;
 
 /**
  * Represents a single chess piece
@@ -13,9 +10,18 @@ import java.util.function.Function;
  */
 public class ChessPiece {
 
+    private static final ChessPiece[] PIECES = new ChessPiece[12];
+
+    static {
+        for (ChessGame.TeamColor color : ChessGame.TeamColor.values()) {
+            for (PieceType type : PieceType.values()) {
+                PIECES[Bitboards.pieceIndex(color, type)] = new ChessPiece(color, type);
+            }
+        }
+    }
+
     private final ChessGame.TeamColor pieceColor;
     private final ChessPiece.PieceType type;
-    private final int[][] knightDirections = { {1, 2}, {2, 1}, {1, -2}, {-2, 1}, {-1, 2}, {2, -1}, {-1, -2}, {-2, -1} };
 
 
     public ChessPiece(ChessGame.TeamColor pieceColor, ChessPiece.PieceType type) {
@@ -23,6 +29,23 @@ public class ChessPiece {
         this.type = type;
     }
 
+    /**
+     * Gets the shared instance for a color and type instead of allocating a
+     * new one; pieces are immutable, so every board can use the same twelve
+     *
+     * @return a piece equal to {@code new ChessPiece(color, type)}
+     */
+    public static ChessPiece of(ChessGame.TeamColor color, PieceType type) {
+        return PIECES[Bitboards.pieceIndex(color, type)];
+    }
+
+    /**
+     * @return the shared instance for a piece index from {@link Bitboards#pieceIndex}
+     */
+    static ChessPiece of(int pieceIndex) {
+        return PIECES[pieceIndex];
+    }
+
     /**
      * The various different chess piece options
      */
@@ -60,162 +83,72 @@ public class ChessPiece {
 
     @Override
     public int hashCode() {
-        return Objects.hash(pieceColor, type);
-    }
-
-    boolean inBounds(int x, int y) {
-        return x < 9 && y < 9 && x > 0 && y > 0;
-    }
-
-    private Collection<ChessMove> checkLine(ChessPosition myPosition, ChessBoard board, ChessGame.TeamColor color,
-                                            Function<Integer, Integer> rowFunc, Function<Integer, Integer> colFunc) {
-        int x = rowFunc.apply(myPosition.getRow());
-        int y = colFunc.apply(myPosition.getColumn());
-        Vector<ChessMove> lineMoves = new Vector<>();
-
-        while (inBounds(x, y)) {
-            ChessPosition endPosition = new ChessPosition(x, y);
-            if (board.getPiece(endPosition) == null || board.getPiece(endPosition).getTeamColor() != color) {
-                lineMoves.add(new ChessMove(myPosition, endPosition, null));
-                x = rowFunc.apply(x);
-                y = colFunc.apply(y);
-            } else {break;}
-            if (board.getPiece(endPosition) != null && board.getPiece(endPosition).getTeamColor() != color) {break;}
-        }
-
-        return lineMoves;
+        return 31 * Objects.hashCode(pieceColor) + Objects.hashCode(type);
     }
 
     /**
-     * Checks if a position is diagonal from the current position
-     *
-     * @return Boolean
+     * Adds a move from the given square to each square in the mask
      */
-    private Collection<ChessMove> checkDiagonals(ChessPosition myPosition, ChessBoard board, ChessGame.TeamColor color) {
-        Vector<ChessMove> diagonalMoves = new Vector<>();
-
-        diagonalMoves.addAll(checkLine(myPosition, board, color, (n) -> n + 1, (n) -> n + 1));
-        diagonalMoves.addAll(checkLine(myPosition, board, color, (n) -> n + 1, (n) -> n - 1));
-        diagonalMoves.addAll(checkLine(myPosition, board, color, (n) -> n - 1, (n) -> n + 1));
-        diagonalMoves.addAll(checkLine(myPosition, board, color, (n) -> n - 1, (n) -> n - 1));
-
-        return diagonalMoves;
-    }
-
-    private Collection<ChessMove> checkAxes(ChessPosition myPosition, ChessBoard board, ChessGame.TeamColor color) {
-        Vector<ChessMove> axialMoves = new Vector<>();
-
-        axialMoves.addAll(checkLine(myPosition, board, color, (n) -> n + 1, (n) -> n));
-        axialMoves.addAll(checkLine(myPosition, board, color, (n) -> n - 1, (n) -> n));
-        axialMoves.addAll(checkLine(myPosition, board, color, (n) -> n, (n) -> n + 1));
-        axialMoves.addAll(checkLine(myPosition, board, color, (n) -> n, (n) -> n - 1));
-
-        return axialMoves;
-    }
-
-    private Collection<ChessMove> knightMoves(ChessPosition myPosition, ChessBoard board, ChessGame.TeamColor color) {
-        Vector<ChessMove> knightMoves = new Vector<>();
-
-        int startRow = myPosition.getRow();
-        int startCol = myPosition.getColumn();
-
-        for (int[] movePair : knightDirections) {
-            int row = startRow + movePair[0];
-            int col = startCol + movePair[1];
-
-            if (inBounds(row, col)) {
-                ChessPosition endPosition = new ChessPosition(row, col);
-                if (board.getPiece(endPosition) == null || board.getPiece(endPosition).getTeamColor() != color) {
-                    knightMoves.add(new ChessMove(myPosition, endPosition, null));
-                }
-            }
+    private static void addMoves(int from, long targets, long enemies, MoveList moves) {
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            moves.add(Moves.encode(from, to, (enemies & (1L << to)) != 0 ? Moves.CAPTURE : 0));
         }
-
-        return knightMoves;
     }
 
-    private Collection<ChessMove> kingMoves(ChessPosition myPosition, ChessBoard board, ChessGame.TeamColor color) {
-        Vector<ChessMove> kingMoves = new Vector<>();
-        int startRow = myPosition.getRow();
-        int startCol = myPosition.getColumn();
-
-        for (int row = startRow - 1; row < startRow + 2; row++) {
-            for (int col = startCol - 1; col < startCol + 2; col++) {
-                if (inBounds(row, col) && !(row == startRow && col == startCol)) {
-                    ChessPosition endPosition = new ChessPosition(row, col);
-                    if (board.getPiece(endPosition) == null || board.getPiece(endPosition).getTeamColor() != color) {
-                        kingMoves.add(new ChessMove(myPosition, endPosition, null));
-                    }
-                }
-            }
+    private static void addPawnMove(int from, int to, int flags, boolean promotes, MoveList moves) {
+        if (promotes) {
+            moves.add(Moves.encode(from, to, PieceType.QUEEN, flags));
+            moves.add(Moves.encode(from, to, PieceType.ROOK, flags));
+            moves.add(Moves.encode(from, to, PieceType.BISHOP, flags));
+            moves.add(Moves.encode(from, to, PieceType.KNIGHT, flags));
+        } else {
+            moves.add(Moves.encode(from, to, flags));
         }
-
-        return kingMoves;
     }
 
-    private Collection<ChessMove> pawnPromotions(ChessPosition myPosition, ChessPosition endPosition) {
-        Vector<ChessMove> pawnPromotions = new Vector<>();
-        pawnPromotions.add(new ChessMove(myPosition, endPosition, PieceType.QUEEN));
-        pawnPromotions.add(new ChessMove(myPosition, endPosition, PieceType.ROOK));
-        pawnPromotions.add(new ChessMove(myPosition, endPosition, PieceType.BISHOP));
-        pawnPromotions.add(new ChessMove(myPosition, endPosition, PieceType.KNIGHT));
-
-        return pawnPromotions;
-    }
-
-    private Collection<ChessMove> pawnMoves(ChessPosition myPosition, ChessBoard board, ChessGame.TeamColor color) {
-        Vector<ChessMove> pawnMoves = new Vector<>();
-        int startRow = myPosition.getRow();
-        int startCol = myPosition.getColumn();
-        int direction = (color == ChessGame.TeamColor.WHITE) ? 1 : -1;
-        boolean promotion = (direction > 0 && startRow == 7) || (direction < 0 && startRow == 2);
-
-        if ((startRow == 2 && direction > 0) || (startRow == 7 && direction < 0)) {
-            ChessPosition endPosition = new ChessPosition(startRow + (2 * direction), startCol);
-            ChessPosition midPosition = new ChessPosition(startRow + direction, startCol);
-            if (board.getPiece(midPosition) == null) {
-                pawnMoves.add(new ChessMove(myPosition, midPosition, null));
-            }
-            if (board.getPiece(endPosition) == null && board.getPiece(midPosition) == null) {
-                pawnMoves.add(new ChessMove(myPosition, endPosition, null));
-            }
-        } else if (startRow < 8 && startRow > 1) {
-            ChessPosition endPosition = new ChessPosition(startRow + direction, startCol);
-            if (board.getPiece(endPosition) == null) {
-                if (promotion) {
-                    pawnMoves.addAll(pawnPromotions(myPosition, endPosition));
-                } else {
-                    pawnMoves.add(new ChessMove(myPosition, endPosition, null));
-                }
-            }
+    private void pawnMoves(ChessBoard board, int square, long enemies, MoveList moves) {
+        boolean white = pieceColor == ChessGame.TeamColor.WHITE;
+        int row = Bitboards.row(square);
+        if (row == 1 || row == 8) {
+            return;
         }
-
-        if (startCol < 8) {
-            ChessPosition east = new ChessPosition(startRow + direction, startCol + 1);
-
-            if (board.getPiece(east) != null && board.getPiece(east).getTeamColor() != color) {
-                if (promotion) {
-                    pawnMoves.addAll(pawnPromotions(myPosition, east));
-                } else {
-                    pawnMoves.add(new ChessMove(myPosition, east, null));
-                }
-
+        int forward = white ? 8 : -8;
+        boolean promotes = row == (white ? 7 : 2);
+
+        int oneStep = square + forward;
+        if ((board.occupied() & (1L << oneStep)) == 0) {
+            addPawnMove(square, oneStep, 0, promotes, moves);
+            int twoSteps = oneStep + forward;
+            if (row == (white ? 2 : 7) && (board.occupied() & (1L << twoSteps)) == 0) {
+                moves.add(Moves.encode(square, twoSteps, Moves.DOUBLE_PUSH));
             }
         }
 
-        if (startCol > 1) {
-            ChessPosition west = new ChessPosition(startRow + direction, startCol - 1);
-
-            if (board.getPiece(west) != null && board.getPiece(west).getTeamColor() != color) {
-                if (promotion) {
-                    pawnMoves.addAll(pawnPromotions(myPosition, west));
-                } else {
-                    pawnMoves.add(new ChessMove(myPosition, west, null));
-                }
-            }
+        long captures = Bitboards.PAWN_ATTACKS[pieceColor.ordinal()][square] & enemies;
+        while (captures != 0) {
+            int to = Long.numberOfTrailingZeros(captures);
+            captures &= captures - 1;
+            addPawnMove(square, to, Moves.CAPTURE, promotes, moves);
         }
+    }
 
-        return pawnMoves;
+    /**
+     * Calculates every square this piece attacks from the given square, whether
+     * or not it holds a piece of either color
+     *
+     * @return mask of attacked squares
+     */
+    long attacks(ChessBoard board, int square) {
+        return switch (this.type) {
+            case KING -> Bitboards.KING_ATTACKS[square];
+            case KNIGHT -> Bitboards.KNIGHT_ATTACKS[square];
+            case PAWN -> Bitboards.PAWN_ATTACKS[this.pieceColor.ordinal()][square];
+            case BISHOP -> MagicAttacks.bishopAttacks(square, board.occupied());
+            case ROOK -> MagicAttacks.rookAttacks(square, board.occupied());
+            case QUEEN -> MagicAttacks.queenAttacks(square, board.occupied());
+        };
     }
 
     /**
@@ -226,23 +159,25 @@ public class ChessPiece {
      * @return Collection of valid moves
      */
     public Collection<ChessMove> pieceMoves(ChessBoard board, ChessPosition myPosition) {
-        Vector<ChessMove> possibleMoves = new Vector<>();
-
-        if (this.type == PieceType.QUEEN) {
-            possibleMoves.addAll(checkDiagonals(myPosition, board, this.getTeamColor()));
-            possibleMoves.addAll(checkAxes(myPosition, board, this.pieceColor));
-        } else if (this.type == PieceType.ROOK) {
-            possibleMoves.addAll(checkAxes(myPosition, board, this.pieceColor));
-        } else if (this.type == PieceType.BISHOP) {
-            possibleMoves.addAll(checkDiagonals(myPosition, board, this.getTeamColor()));
-        } else if (this.type == PieceType.KNIGHT) {
-            possibleMoves.addAll(knightMoves(myPosition, board, this.pieceColor));
-        } else if (this.type == PieceType.KING) {
-            possibleMoves.addAll(kingMoves(myPosition, board,this.getTeamColor()));
+        MoveList moves = new MoveList(32);
+        pieceMoves(board, Bitboards.square(myPosition), moves);
+        return moves.toChessMoves();
+    }
+
+    /**
+     * Same as {@link #pieceMoves(ChessBoard, ChessPosition)}, but appends the
+     * moves to a list as encoded ints instead of allocating move objects
+     *
+     * @param square the square (0-63) this piece is on
+     * @param moves  list to add the moves to
+     */
+    void pieceMoves(ChessBoard board, int square, MoveList moves) {
+        long enemies = board.pieces(this.pieceColor == ChessGame.TeamColor.WHITE
+                ? ChessGame.TeamColor.BLACK : ChessGame.TeamColor.WHITE);
+        if (this.type == PieceType.PAWN) {
+            pawnMoves(board, square, enemies, moves);
         } else {
-            possibleMoves.addAll(pawnMoves(myPosition, board, this.getTeamColor()));
+            addMoves(square, attacks(board, square) & ~board.pieces(this.pieceColor), enemies, moves);
         }
-
-        return possibleMoves;
     }
-}
\ No newline at end of file
+}
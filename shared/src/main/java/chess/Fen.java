@@ -0,0 +1,231 @@
+package chess;
+
+/**
+ * Reads and writes positions in Forsyth-Edwards Notation
+ * <p>
+ * The parser walks the text one character at a time with an index instead of
+ * splitting it into fields, so loading a position allocates nothing beyond
+ * the board itself. Any {@link CharSequence} works, including a
+ * {@link java.nio.CharBuffer} over data read straight from a socket or file.
+ */
+final class Fen {
+
+    // Indexed by Bitboards.pieceIndex: white pieces upper case, black lower case
+    private static final String PIECE_CHARS = "KQBNRPkqbnrp";
+
+    private Fen() {
+    }
+
+    /**
+     * Fills an empty board from the piece placement field
+     *
+     * @param fen   text holding the field
+     * @param start index the field starts at
+     * @return index just past the field
+     */
+    static int readPlacement(CharSequence fen, int start, ChessBoard board) {
+        int i = start;
+        int row = 8;
+        int col = 1;
+        while (i < fen.length() && fen.charAt(i) != ' ') {
+            char c = fen.charAt(i);
+            if (c == '/') {
+                if (col != 9 || row == 1) {
+                    throw error(fen, i, "wrong number of squares in row " + row);
+                }
+                row--;
+                col = 1;
+            } else if (c >= '1' && c <= '8') {
+                col += c - '0';
+            } else {
+                int pieceIndex = PIECE_CHARS.indexOf(c);
+                if (pieceIndex < 0 || col > 8) {
+                    throw error(fen, i, "unexpected '" + c + "'");
+                }
+                board.setPiece(Bitboards.square(row, col), ChessPiece.of(pieceIndex));
+                col++;
+            }
+            if (col > 9) {
+                throw error(fen, i, "too many squares in row " + row);
+            }
+            i++;
+        }
+        if (row != 1 || col != 9) {
+            throw error(fen, i, "board is incomplete");
+        }
+        return i;
+    }
+
+    /**
+     * Sets up a game from a full FEN record. The halfmove clock and fullmove
+     * number may be left off, as many tools do.
+     */
+    static void read(CharSequence fen, ChessGame game) {
+        ChessBoard board = new ChessBoard();
+        int i = readPlacement(fen, skipSpaces(fen, 0), board);
+
+        i = expectField(fen, i);
+        ChessGame.TeamColor turn = switch (fen.charAt(i)) {
+            case 'w' -> ChessGame.TeamColor.WHITE;
+            case 'b' -> ChessGame.TeamColor.BLACK;
+            default -> throw error(fen, i, "side to move must be 'w' or 'b'");
+        };
+        i++;
+
+        i = expectField(fen, i);
+        int castlingRights = 0;
+        if (fen.charAt(i) == '-') {
+            i++;
+        } else {
+            while (i < fen.length() && fen.charAt(i) != ' ') {
+                castlingRights |= switch (fen.charAt(i)) {
+                    case 'K' -> ChessGame.WHITE_KINGSIDE;
+                    case 'Q' -> ChessGame.WHITE_QUEENSIDE;
+                    case 'k' -> ChessGame.BLACK_KINGSIDE;
+                    case 'q' -> ChessGame.BLACK_QUEENSIDE;
+                    default -> throw error(fen, i, "unexpected castling right '" + fen.charAt(i) + "'");
+                };
+                i++;
+            }
+        }
+
+        i = expectField(fen, i);
+        int enPassantSquare = -1;
+        if (fen.charAt(i) == '-') {
+            i++;
+        } else {
+            if (i + 1 >= fen.length()) {
+                throw error(fen, i, "incomplete en passant square");
+            }
+            char file = fen.charAt(i);
+            char rank = fen.charAt(i + 1);
+            if (file < 'a' || file > 'h' || (rank != '3' && rank != '6')) {
+                throw error(fen, i, "bad en passant square");
+            }
+            enPassantSquare = Bitboards.square(rank - '0', file - 'a' + 1);
+            i += 2;
+        }
+
+        int halfmoveClock = 0;
+        int fullmoveNumber = 1;
+        i = skipSpaces(fen, i);
+        if (i < fen.length()) {
+            int end = numberEnd(fen, i);
+            halfmoveClock = parseNumber(fen, i, end);
+            i = skipSpaces(fen, end);
+            if (i < fen.length()) {
+                end = numberEnd(fen, i);
+                fullmoveNumber = parseNumber(fen, i, end);
+                i = skipSpaces(fen, end);
+            }
+        }
+        if (i < fen.length()) {
+            throw error(fen, i, "unexpected text after the fullmove number");
+        }
+
+        game.setBoard(board);
+        game.setTeamTurn(turn);
+        game.setPositionState(castlingRights, enPassantSquare, halfmoveClock, fullmoveNumber);
+    }
+
+    static void appendPlacement(ChessBoard board, StringBuilder out) {
+        for (int row = 8; row >= 1; row--) {
+            int empty = 0;
+            for (int col = 1; col <= 8; col++) {
+                ChessPiece piece = board.pieceAt(Bitboards.square(row, col));
+                if (piece == null) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    out.append((char) ('0' + empty));
+                    empty = 0;
+                }
+                out.append(PIECE_CHARS.charAt(Bitboards.pieceIndex(piece.getTeamColor(), piece.getPieceType())));
+            }
+            if (empty > 0) {
+                out.append((char) ('0' + empty));
+            }
+            if (row > 1) {
+                out.append('/');
+            }
+        }
+    }
+
+    static void append(ChessGame game, int castlingRights, int enPassantSquare, int halfmoveClock,
+                       int fullmoveNumber, StringBuilder out) {
+        appendPlacement(game.getBoard(), out);
+        out.append(game.getTeamTurn() == ChessGame.TeamColor.WHITE ? " w " : " b ");
+        if (castlingRights == 0) {
+            out.append('-');
+        } else {
+            appendIf(out, castlingRights, ChessGame.WHITE_KINGSIDE, 'K');
+            appendIf(out, castlingRights, ChessGame.WHITE_QUEENSIDE, 'Q');
+            appendIf(out, castlingRights, ChessGame.BLACK_KINGSIDE, 'k');
+            appendIf(out, castlingRights, ChessGame.BLACK_QUEENSIDE, 'q');
+        }
+        out.append(' ');
+        if (enPassantSquare < 0) {
+            out.append('-');
+        } else {
+            out.append((char) ('a' + Bitboards.column(enPassantSquare) - 1))
+                    .append((char) ('0' + Bitboards.row(enPassantSquare)));
+        }
+        out.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber);
+    }
+
+    private static void appendIf(StringBuilder out, int castlingRights, int right, char c) {
+        if ((castlingRights & right) != 0) {
+            out.append(c);
+        }
+    }
+
+    private static int skipSpaces(CharSequence fen, int i) {
+        while (i < fen.length() && fen.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Moves past the single space that separates two fields
+     *
+     * @return index where the next field starts
+     */
+    private static int expectField(CharSequence fen, int i) {
+        if (i >= fen.length() || fen.charAt(i) != ' ') {
+            throw error(fen, i, "missing field");
+        }
+        i = skipSpaces(fen, i);
+        if (i >= fen.length()) {
+            throw error(fen, i, "missing field");
+        }
+        return i;
+    }
+
+    private static int numberEnd(CharSequence fen, int i) {
+        while (i < fen.length() && fen.charAt(i) != ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int parseNumber(CharSequence fen, int start, int end) {
+        if (end - start > 6) {
+            throw error(fen, start, "number too large");
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = fen.charAt(i);
+            if (c < '0' || c > '9') {
+                throw error(fen, i, "expected a number");
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException error(CharSequence fen, int index, String problem) {
+        return new IllegalArgumentException("Bad FEN at index " + index + ", " + problem + ": " + fen);
+    }
+}
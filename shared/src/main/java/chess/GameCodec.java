@@ -0,0 +1,104 @@
+package chess;
+
+/**
+ * Packs a {@link ChessGame} into a fixed 39-byte record, for storage where
+ * the Gson form is too large or too slow to read back
+ * <p>
+ * Layout, multi-byte numbers big-endian:
+ * <pre>
+ *   0       format version, currently 1
+ *   1-32    the board, one nibble per square from a1 to h8, low nibble
+ *           first: 0 for empty, otherwise the piece index plus one
+ *   33      bit 0 black to move, bit 1 game over, bits 4-7 castling rights
+ *   34      en passant square plus one, 0 for none
+ *   35-36   halfmove clock
+ *   37-38   fullmove number
+ * </pre>
+ * Like the JSON form, the record holds the position but not the moves that
+ * led to it, so a decoded game can't undo moves or see earlier repetitions.
+ */
+public final class GameCodec {
+
+    public static final int VERSION = 1;
+    public static final int LENGTH = 39;
+
+    private static final int FLAGS = 33;
+    private static final int EN_PASSANT = 34;
+    private static final int HALFMOVE = 35;
+    private static final int FULLMOVE = 37;
+
+    private GameCodec() {
+    }
+
+    public static byte[] encode(ChessGame game) {
+        byte[] bytes = new byte[LENGTH];
+        bytes[0] = VERSION;
+
+        ChessBoard board = game.getBoard();
+        for (int square = 0; square < 64; square++) {
+            ChessPiece piece = board.pieceAt(square);
+            if (piece != null) {
+                int nibble = Bitboards.pieceIndex(piece.getTeamColor(), piece.getPieceType()) + 1;
+                bytes[1 + (square >>> 1)] |= (byte) (nibble << ((square & 1) * 4));
+            }
+        }
+
+        int flags = game.castlingRights() << 4;
+        if (game.getTeamTurn() == ChessGame.TeamColor.BLACK) {
+            flags |= 1;
+        }
+        if (game.isOver()) {
+            flags |= 2;
+        }
+        bytes[FLAGS] = (byte) flags;
+        bytes[EN_PASSANT] = (byte) (game.enPassantSquare() + 1);
+        writeShort(bytes, HALFMOVE, game.halfmoveClock());
+        writeShort(bytes, FULLMOVE, game.fullmoveNumber());
+        return bytes;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes aren't a record this version can read
+     */
+    public static ChessGame decode(byte[] bytes) {
+        if (bytes == null || bytes.length != LENGTH || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Not a version " + VERSION + " game record");
+        }
+
+        ChessBoard board = new ChessBoard();
+        for (int square = 0; square < 64; square++) {
+            int nibble = (bytes[1 + (square >>> 1)] >>> ((square & 1) * 4)) & 0xF;
+            if (nibble > 12) {
+                throw new IllegalArgumentException("Bad piece " + nibble + " on square " + square);
+            }
+            if (nibble != 0) {
+                board.setPiece(square, ChessPiece.of(nibble - 1));
+            }
+        }
+
+        int flags = bytes[FLAGS] & 0xFF;
+        int enPassantSquare = (bytes[EN_PASSANT] & 0xFF) - 1;
+        if (enPassantSquare > 63) {
+            throw new IllegalArgumentException("Bad en passant square " + enPassantSquare);
+        }
+
+        ChessGame game = new ChessGame();
+        game.setBoard(board);
+        game.setTeamTurn((flags & 1) != 0 ? ChessGame.TeamColor.BLACK : ChessGame.TeamColor.WHITE);
+        game.setPositionState(flags >>> 4, enPassantSquare, readShort(bytes, HALFMOVE), readShort(bytes, FULLMOVE));
+        if ((flags & 2) != 0) {
+            game.gameOver();
+        }
+        return game;
+    }
+
+    private static void writeShort(byte[] bytes, int offset, int value) {
+        int clamped = Math.min(value, 0xFFFF);
+        bytes[offset] = (byte) (clamped >>> 8);
+        bytes[offset + 1] = (byte) clamped;
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+}
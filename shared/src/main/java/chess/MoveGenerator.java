@@ -0,0 +1,219 @@
+package chess;
+
+/**
+ * Generates legal moves without playing each one to see if it leaves the king
+ * in check
+ * <p>
+ * {@link #prepare} works out once per position which enemy pieces give check
+ * and which of the moving side's pieces are pinned to their king. After that a
+ * move by any piece other than the king is legal exactly when it lands on a
+ * square that blocks or captures the only checker (any square when not in
+ * check) and, for a pinned piece, stays on the line of its pin. Only king
+ * moves need an attack test, done with the king lifted off the board so it
+ * can't hide behind itself from a slider.
+ * <p>
+ * Castling and en passant depend on the game's history rather than just the
+ * board, so they are added here instead of by {@link ChessPiece#pieceMoves}.
+ * En passant is checked in full, since removing two pawns from one row can
+ * uncover an attack that no pin describes.
+ * <p>
+ * One generator is reused for every position of a game, so it is not thread-safe.
+ */
+final class MoveGenerator {
+
+    private final long[] pinRays = new long[64];
+
+    private ChessBoard board;
+    private ChessGame.TeamColor color;
+    private ChessGame.TeamColor opponent;
+    private int castlingRights;
+    private int enPassantSquare;
+    private int king;
+    private long checkers;
+    private long pinned;
+    private long evasionTargets;
+
+    /**
+     * Finds the checkers and pinned pieces for a side of the given board
+     *
+     * @param board           the board to generate moves on
+     * @param color           the side whose moves will be generated
+     * @param castlingRights  castling rights bitmask, as kept by {@link ChessGame}
+     * @param enPassantSquare square (0-63) a pawn can capture en passant on, or -1
+     */
+    void prepare(ChessBoard board, ChessGame.TeamColor color, int castlingRights, int enPassantSquare) {
+        this.board = board;
+        this.color = color;
+        this.castlingRights = castlingRights;
+        this.enPassantSquare = enPassantSquare;
+        opponent = color == ChessGame.TeamColor.WHITE ? ChessGame.TeamColor.BLACK : ChessGame.TeamColor.WHITE;
+        king = board.kingSquare(color);
+        checkers = 0L;
+        pinned = 0L;
+        evasionTargets = ~0L;
+        if (king < 0) {
+            return;
+        }
+
+        long occupied = board.occupied();
+        checkers = board.attackersTo(king, opponent, occupied);
+        if (checkers != 0) {
+            // Against two checkers only the king can move; against one, capture it or step in its way
+            evasionTargets = Long.bitCount(checkers) > 1
+                    ? 0L
+                    : checkers | Bitboards.BETWEEN[king][Long.numberOfTrailingZeros(checkers)];
+        }
+
+        // Enemy sliders that would see the king if none of our pieces were in the way
+        long enemies = board.pieces(opponent);
+        long queens = board.pieces(opponent, ChessPiece.PieceType.QUEEN);
+        long snipers = (MagicAttacks.rookAttacks(king, enemies)
+                & (board.pieces(opponent, ChessPiece.PieceType.ROOK) | queens))
+                | (MagicAttacks.bishopAttacks(king, enemies)
+                & (board.pieces(opponent, ChessPiece.PieceType.BISHOP) | queens));
+        while (snipers != 0) {
+            int sniper = Long.numberOfTrailingZeros(snipers);
+            snipers &= snipers - 1;
+            long between = Bitboards.BETWEEN[king][sniper];
+            long blockers = between & occupied;
+            if (Long.bitCount(blockers) == 1 && (blockers & board.pieces(color)) != 0) {
+                pinned |= blockers;
+                pinRays[Long.numberOfTrailingZeros(blockers)] = between | (1L << sniper);
+            }
+        }
+    }
+
+    /**
+     * @return True if the prepared side's king is attacked
+     */
+    boolean inCheck() {
+        return checkers != 0;
+    }
+
+    /**
+     * Appends the legal moves of the prepared side's piece on a square
+     *
+     * @param square square (0-63) of a piece belonging to the prepared side
+     * @param moves  list to add the moves to
+     */
+    void addMoves(int square, MoveList moves) {
+        int start = moves.size();
+        ChessPiece piece = board.pieceAt(square);
+        piece.pieceMoves(board, square, moves);
+        int kept = start;
+
+        if (square == king) {
+            long withoutKing = board.occupied() & ~(1L << king);
+            for (int i = start; i < moves.size(); i++) {
+                int move = moves.get(i);
+                if (!board.isSquareAttacked(Moves.to(move), opponent, withoutKing)) {
+                    moves.set(kept++, move);
+                }
+            }
+            moves.truncate(kept);
+            addCastling(moves);
+            return;
+        }
+
+        long allowed = evasionTargets;
+        if ((pinned & (1L << square)) != 0) {
+            allowed &= pinRays[square];
+        }
+        if (allowed != ~0L) {
+            for (int i = start; i < moves.size(); i++) {
+                int move = moves.get(i);
+                if ((allowed & (1L << Moves.to(move))) != 0) {
+                    moves.set(kept++, move);
+                }
+            }
+            moves.truncate(kept);
+        }
+        if (enPassantSquare >= 0 && piece.getPieceType() == ChessPiece.PieceType.PAWN
+                && (Bitboards.PAWN_ATTACKS[color.ordinal()][square] & (1L << enPassantSquare)) != 0) {
+            addEnPassant(square, moves);
+        }
+    }
+
+    private void addEnPassant(int from, MoveList moves) {
+        // The captured pawn sits beside the capturing one, on the en passant square's column
+        int captured = (from & 0x38) | (enPassantSquare & 7);
+        if ((board.pieces(opponent, ChessPiece.PieceType.PAWN) & (1L << captured)) == 0) {
+            return;
+        }
+        if (king >= 0) {
+            long occupied = (board.occupied() & ~(1L << from) & ~(1L << captured)) | (1L << enPassantSquare);
+            if ((board.attackersTo(king, opponent, occupied) & ~(1L << captured)) != 0) {
+                return;
+            }
+        }
+        moves.add(Moves.encode(from, enPassantSquare, Moves.EN_PASSANT | Moves.CAPTURE));
+    }
+
+    /**
+     * Adds castling moves, where the king moves two squares toward a rook
+     * that then jumps over it: both must still have their castling right,
+     * the squares between them must be empty, and the king can't be in
+     * check or pass through or land on an attacked square
+     */
+    private void addCastling(MoveList moves) {
+        int shift = color == ChessGame.TeamColor.WHITE ? 0 : 2;
+        int rights = (castlingRights >>> shift) & (ChessGame.WHITE_KINGSIDE | ChessGame.WHITE_QUEENSIDE);
+        int home = Bitboards.square(color == ChessGame.TeamColor.WHITE ? 1 : 8, 5);
+        if (rights == 0 || checkers != 0 || king != home) {
+            return;
+        }
+        long occupied = board.occupied();
+        long rooks = board.pieces(color, ChessPiece.PieceType.ROOK);
+
+        if ((rights & ChessGame.WHITE_KINGSIDE) != 0 && (rooks & (1L << (home + 3))) != 0
+                && (occupied & (3L << (home + 1))) == 0
+                && !board.isSquareAttacked(home + 1, opponent) && !board.isSquareAttacked(home + 2, opponent)) {
+            moves.add(Moves.encode(home, home + 2, Moves.CASTLING));
+        }
+        if ((rights & ChessGame.WHITE_QUEENSIDE) != 0 && (rooks & (1L << (home - 4))) != 0
+                && (occupied & (7L << (home - 3))) == 0
+                && !board.isSquareAttacked(home - 1, opponent) && !board.isSquareAttacked(home - 2, opponent)) {
+            moves.add(Moves.encode(home, home - 2, Moves.CASTLING));
+        }
+    }
+
+    /**
+     * Appends the legal moves of every piece of the prepared side
+     */
+    void addAllMoves(MoveList moves) {
+        long pieces = board.pieces(color);
+        while (pieces != 0) {
+            int square = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            addMoves(square, moves);
+        }
+    }
+
+    /**
+     * Looks for a legal move of the prepared side, stopping at the first one
+     *
+     * @param scratch list to generate into, left with unspecified contents
+     * @return True if the prepared side has any legal move
+     */
+    boolean hasAnyMove(MoveList scratch) {
+        if (king < 0) {
+            return hasMoveAmong(board.pieces(color), scratch);
+        }
+        // Try the king last: its moves are the only ones that need an attack test
+        long others = Long.bitCount(checkers) > 1 ? 0L : board.pieces(color) & ~(1L << king);
+        return hasMoveAmong(others, scratch) || hasMoveAmong(1L << king, scratch);
+    }
+
+    private boolean hasMoveAmong(long pieces, MoveList scratch) {
+        while (pieces != 0) {
+            int square = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            scratch.clear();
+            addMoves(square, scratch);
+            if (!scratch.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,78 @@
+package chess;
+
+/**
+ * Packs a move into a single int so move lists can be plain int arrays
+ * <p>
+ * Bits 0-5 hold the start square and bits 6-11 the end square (0-63, see
+ * {@link Bitboards}), bits 12-14 the promotion piece (0 for none, otherwise
+ * the {@link ChessPiece.PieceType} ordinal plus one) and the bits from 15 up
+ * are flags describing the move. Two encodings of the same move compare
+ * equal once the flags are masked off with {@link #withoutFlags}.
+ */
+public final class Moves {
+
+    public static final int CAPTURE = 1 << 15;
+    public static final int DOUBLE_PUSH = 1 << 16;
+    public static final int EN_PASSANT = 1 << 17;
+    public static final int CASTLING = 1 << 18;
+
+    private static final int SQUARE_MASK = 0x3F;
+    private static final int TO_SHIFT = 6;
+    private static final int PROMOTION_SHIFT = 12;
+    private static final int MOVE_MASK = (1 << 15) - 1;
+    private static final ChessPiece.PieceType[] TYPES = ChessPiece.PieceType.values();
+
+    private Moves() {
+    }
+
+    public static int encode(int from, int to, int flags) {
+        return from | (to << TO_SHIFT) | flags;
+    }
+
+    public static int encode(int from, int to, ChessPiece.PieceType promotion, int flags) {
+        int promotionCode = promotion == null ? 0 : promotion.ordinal() + 1;
+        return from | (to << TO_SHIFT) | (promotionCode << PROMOTION_SHIFT) | flags;
+    }
+
+    /**
+     * Encodes a move without any flags, since they can't be worked out
+     * without the board
+     *
+     * @throws IllegalArgumentException if the move starts or ends off the board
+     */
+    public static int encode(ChessMove move) {
+        if (!ChessMove.onBoard(move.getStartPosition()) || !ChessMove.onBoard(move.getEndPosition())) {
+            throw new IllegalArgumentException("Move starts or ends off the board");
+        }
+        return encode(Bitboards.square(move.getStartPosition()), Bitboards.square(move.getEndPosition()),
+                move.getPromotionPiece(), 0);
+    }
+
+    public static int from(int move) {
+        return move & SQUARE_MASK;
+    }
+
+    public static int to(int move) {
+        return (move >>> TO_SHIFT) & SQUARE_MASK;
+    }
+
+    /**
+     * @return the type a pawn is promoted to, or null if the move is not a promotion
+     */
+    public static ChessPiece.PieceType promotion(int move) {
+        int promotionCode = (move >>> PROMOTION_SHIFT) & 0x7;
+        return promotionCode == 0 ? null : TYPES[promotionCode - 1];
+    }
+
+    public static int flags(int move) {
+        return move & ~MOVE_MASK;
+    }
+
+    public static int withoutFlags(int move) {
+        return move & MOVE_MASK;
+    }
+
+    public static ChessMove toChessMove(int move) {
+        return ChessMove.of(from(move), to(move), promotion(move));
+    }
+}
@@ -0,0 +1,219 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts the leaf nodes of the legal move tree (perft) to check the move
+ * generator against known totals and to measure its speed
+ * <p>
+ * Usage:
+ * <pre>
+ *   Perft &lt;depth&gt; [fen]         count nodes from the position (default: start)
+ *   Perft divide &lt;depth&gt; [fen]  also print the count below each root move
+ *   Perft suite [maxDepth]       run every reference position and check the totals
+ * </pre>
+ */
+public class Perft {
+
+    public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    /**
+     * A well-known test position with its published node counts, starting at depth 1
+     */
+    public record ReferencePosition(String name, String fen, long... expected) {
+    }
+
+    /**
+     * Standard perft positions, from https://www.chessprogramming.org/Perft_Results
+     */
+    public static final List<ReferencePosition> REFERENCE_POSITIONS = List.of(
+            new ReferencePosition("start", START_FEN,
+                    20, 400, 8902, 197281, 4865609, 119060324),
+            new ReferencePosition("kiwipete", "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                    48, 2039, 97862, 4085603, 193690690),
+            new ReferencePosition("position 3", "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+                    14, 191, 2812, 43238, 674624, 11030083),
+            new ReferencePosition("position 4", "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                    6, 264, 9467, 422333, 15833292),
+            new ReferencePosition("position 5", "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+                    44, 1486, 62379, 2103487, 89941194),
+            new ReferencePosition("position 6", "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+                    46, 2079, 89890, 3894594, 164075551));
+
+    private static final String USAGE =
+            "Usage: Perft <depth> [fen] | Perft divide <depth> [fen] | Perft suite [maxDepth]";
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println(USAGE);
+            return;
+        }
+        if (args[0].equals("suite")) {
+            int maxDepth = args.length > 1 ? parseDepth(args[1], 1) : 4;
+            boolean passed = runSuite(maxDepth);
+            System.exit(passed ? 0 : 1);
+        }
+
+        boolean divide = args[0].equals("divide");
+        int argIndex = divide ? 1 : 0;
+        if (args.length <= argIndex) {
+            System.out.println(USAGE);
+            System.exit(2);
+        }
+        // Divide splits off a root move, so it needs at least one ply
+        int depth = parseDepth(args[argIndex], divide ? 1 : 0);
+        String fen = args.length > argIndex + 1 ? joinFrom(args, argIndex + 1) : START_FEN;
+        ChessGame game = ChessGame.fromFen(fen);
+
+        long start = System.nanoTime();
+        long nodes;
+        if (divide) {
+            nodes = 0;
+            for (var entry : divide(game, depth)) {
+                System.out.printf("%s: %d%n", entry.move(), entry.nodes());
+                nodes += entry.nodes();
+            }
+            System.out.println();
+        } else {
+            nodes = perft(game, depth);
+        }
+        report(depth, nodes, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the depth given on the command line, or exits with the usage
+     * message if it isn't a number of at least {@code min}
+     */
+    private static int parseDepth(String arg, int min) {
+        try {
+            int depth = Integer.parseInt(arg);
+            if (depth >= min) {
+                return depth;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        System.out.println("Depth must be a whole number of at least " + min + ", not " + arg);
+        System.out.println(USAGE);
+        System.exit(2);
+        return min;
+    }
+
+    /**
+     * Counts the positions reachable in exactly {@code depth} legal moves
+     *
+     * @return number of leaf nodes
+     * @throws IllegalArgumentException if depth is negative
+     */
+    public static long perft(ChessGame game, int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Perft depth must not be negative: " + depth);
+        }
+        MoveList[] lists = new MoveList[Math.max(depth, 1)];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = new MoveList();
+        }
+        return perft(game, depth, lists);
+    }
+
+    /**
+     * @param lists one move list per remaining ply, reused across the whole tree
+     */
+    private static long perft(ChessGame game, int depth, MoveList[] lists) {
+        if (depth == 0) {
+            return 1;
+        }
+        MoveList moves = lists[depth - 1];
+        game.legalMoves(moves);
+        if (depth == 1) {
+            return moves.size();
+        }
+        long nodes = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            game.playMove(moves.get(i));
+            nodes += perft(game, depth - 1, lists);
+            game.unmakeMove();
+        }
+        return nodes;
+    }
+
+    /**
+     * Node count below a single root move, in coordinate notation such as e2e4
+     */
+    public record DivideEntry(String move, long nodes) {
+    }
+
+    /**
+     * Runs perft separately below each legal root move, which narrows a wrong
+     * total down to the move whose subtree is off
+     *
+     * @throws IllegalArgumentException if depth is less than 1
+     */
+    public static List<DivideEntry> divide(ChessGame game, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Divide depth must be at least 1: " + depth);
+        }
+        List<DivideEntry> entries = new ArrayList<>();
+        MoveList moves = new MoveList();
+        game.legalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            game.playMove(move);
+            entries.add(new DivideEntry(notation(move), perft(game, depth - 1)));
+            game.unmakeMove();
+        }
+        return entries;
+    }
+
+    private static boolean runSuite(int maxDepth) {
+        boolean passed = true;
+        for (ReferencePosition position : REFERENCE_POSITIONS) {
+            for (int depth = 1; depth <= Math.min(maxDepth, position.expected().length); depth++) {
+                long start = System.nanoTime();
+                long nodes = perft(ChessGame.fromFen(position.fen()), depth);
+                long elapsed = System.nanoTime() - start;
+                long expected = position.expected()[depth - 1];
+                boolean ok = nodes == expected;
+                passed &= ok;
+                System.out.printf("%-12s depth %d: %12d %s (expected %d), %,.0f nodes/s%n", position.name(), depth,
+                        nodes, ok ? "OK  " : "FAIL", expected, nodesPerSecond(nodes, elapsed));
+            }
+        }
+        return passed;
+    }
+
+    private static void report(int depth, long nodes, long elapsedNanos) {
+        System.out.printf("Depth %d: %d nodes in %.3f s (%,.0f nodes/s)%n", depth, nodes, elapsedNanos / 1e9,
+                nodesPerSecond(nodes, elapsedNanos));
+    }
+
+    private static double nodesPerSecond(long nodes, long elapsedNanos) {
+        return elapsedNanos == 0 ? 0 : nodes * 1e9 / elapsedNanos;
+    }
+
+    static String notation(int move) {
+        StringBuilder text = new StringBuilder(5);
+        appendSquare(text, Moves.from(move));
+        appendSquare(text, Moves.to(move));
+        ChessPiece.PieceType promotion = Moves.promotion(move);
+        if (promotion != null) {
+            text.append(switch (promotion) {
+                case QUEEN -> 'q';
+                case ROOK -> 'r';
+                case BISHOP -> 'b';
+                case KNIGHT -> 'n';
+                default -> '?';
+            });
+        }
+        return text.toString();
+    }
+
+    private static void appendSquare(StringBuilder text, int square) {
+        text.append((char) ('a' + Bitboards.column(square) - 1)).append((char) ('0' + Bitboards.row(square)));
+    }
+
+    private static String joinFrom(String[] args, int start) {
+        return String.join(" ", List.of(args).subList(start, args.length));
+    }
+}
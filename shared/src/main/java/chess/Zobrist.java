@@ -0,0 +1,42 @@
+package chess;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for Zobrist hashing of positions
+ * <p>
+ * A position's key is the XOR of one key per piece on its square, plus keys
+ * for the side to move, the castling rights and the en passant file, so a
+ * move only has to XOR out what it removes and XOR in what it adds. The keys
+ * come from a fixed seed so they are the same in every JVM.
+ */
+final class Zobrist {
+
+    static final long[][] PIECE_KEYS = new long[12][64];
+    static final long BLACK_TO_MOVE_KEY;
+    static final long[] CASTLING_KEYS = new long[16];
+    static final long[] EN_PASSANT_KEYS = new long[8];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED_C0DE_2400L);
+        for (long[] squareKeys : PIECE_KEYS) {
+            for (int square = 0; square < 64; square++) {
+                squareKeys[square] = random.nextLong();
+            }
+        }
+        BLACK_TO_MOVE_KEY = random.nextLong();
+        for (int i = 0; i < CASTLING_KEYS.length; i++) {
+            CASTLING_KEYS[i] = random.nextLong();
+        }
+        for (int i = 0; i < EN_PASSANT_KEYS.length; i++) {
+            EN_PASSANT_KEYS[i] = random.nextLong();
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    static long pieceKey(ChessPiece piece, int square) {
+        return PIECE_KEYS[Bitboards.pieceIndex(piece.getTeamColor(), piece.getPieceType())][square];
+    }
+}
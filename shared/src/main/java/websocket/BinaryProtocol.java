@@ -0,0 +1,210 @@
+package websocket;
+
+import chess.ChessGame;
+import chess.ChessPiece;
+import chess.GameCodec;
+import chess.Moves;
+import model.GameData;
+import websocket.commands.UserGameCommand;
+import websocket.messages.ServerMessage;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact binary form of {@link UserGameCommand} and {@link ServerMessage},
+ * for WebSocket clients that would rather not pay for JSON
+ * <p>
+ * A connection speaks it by sending its commands as binary frames; the
+ * server then answers that connection in binary too, while text frames keep
+ * getting JSON. Numbers are big-endian, strings are a 16-bit length (0xFFFF
+ * for null) followed by UTF-8, and moves use the {@link Moves} encoding.
+ * <pre>
+ * Command:  type(1) gameID(4) move(4, -1 for none) flags(1, bit 0 deltas) authToken(string)
+ * Message:  type(1) then
+ *   LOAD_GAME     present(1) then, if bit 0 is set, gameID(4) white(string) black(string) name(string)
+ *                 and, if bit 1 is set, game({@link GameCodec}, 39)
+ *   ERROR         errorMessage(string)
+ *   NOTIFICATION  message(string)
+ *   MOVE_MADE     move(4) ply(4) hash(8)
+ * </pre>
+ * Type bytes are the enum ordinals. Malformed input is rejected with an
+ * {@link IllegalArgumentException}.
+ */
+public final class BinaryProtocol {
+
+    private static final UserGameCommand.CommandType[] COMMAND_TYPES = UserGameCommand.CommandType.values();
+    private static final ServerMessage.ServerMessageType[] MESSAGE_TYPES = ServerMessage.ServerMessageType.values();
+    private static final int NULL_STRING = 0xFFFF;
+    private static final int NO_MOVE = -1;
+    // Bits 12-14 of a move, see Moves
+    private static final int PROMOTION_SHIFT = 12;
+    private static final int PROMOTION_CODES = ChessPiece.PieceType.values().length;
+    // Bits of the LOAD_GAME presence byte, as JSON allows a missing game too
+    private static final int HAS_GAME_DATA = 1;
+    private static final int HAS_CHESS_GAME = 2;
+
+    private BinaryProtocol() {
+    }
+
+    public static ByteBuffer encode(UserGameCommand command) {
+        byte[] token = utf8(command.getAuthToken());
+        ByteBuffer out = ByteBuffer.allocate(1 + 4 + 4 + 1 + stringLength(token));
+        out.put((byte) command.getCommandType().ordinal());
+        out.putInt(command.getGameID() == null ? 0 : command.getGameID());
+        out.putInt(command.getMove() == null ? NO_MOVE : Moves.encode(command.getMove()));
+        out.put((byte) (command.wantsDeltas() ? 1 : 0));
+        putString(out, token);
+        return out.flip();
+    }
+
+    public static UserGameCommand decodeCommand(ByteBuffer in) {
+        try {
+            var type = COMMAND_TYPES[checkedType(in.get(), COMMAND_TYPES.length)];
+            int gameID = in.getInt();
+            int move = in.getInt();
+            boolean deltas = (in.get() & 1) != 0;
+            String authToken = getString(in);
+            expectEnd(in);
+            return new UserGameCommand(type, authToken, gameID,
+                    move == NO_MOVE ? null : Moves.toChessMove(checkedMove(move)), deltas ? Boolean.TRUE : null);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Command is truncated", e);
+        }
+    }
+
+    public static ByteBuffer encode(ServerMessage message) {
+        var type = message.getServerMessageType();
+        return switch (type) {
+            case LOAD_GAME -> {
+                GameData game = message.getGame();
+                if (game == null) {
+                    yield ByteBuffer.allocate(2).put((byte) type.ordinal()).put((byte) 0).flip();
+                }
+                byte[] white = utf8(game.whiteUsername());
+                byte[] black = utf8(game.blackUsername());
+                byte[] name = utf8(game.gameName());
+                boolean hasChessGame = game.game() != null;
+                ByteBuffer out = ByteBuffer.allocate(1 + 1 + 4 + stringLength(white) + stringLength(black)
+                        + stringLength(name) + (hasChessGame ? GameCodec.LENGTH : 0));
+                out.put((byte) type.ordinal())
+                        .put((byte) (HAS_GAME_DATA | (hasChessGame ? HAS_CHESS_GAME : 0)))
+                        .putInt(game.gameID());
+                putString(out, white);
+                putString(out, black);
+                putString(out, name);
+                if (hasChessGame) {
+                    out.put(GameCodec.encode(game.game()));
+                }
+                yield out.flip();
+            }
+            case ERROR, NOTIFICATION -> {
+                byte[] text = utf8(type == ServerMessage.ServerMessageType.ERROR
+                        ? message.getErrorMessage() : message.getMessage());
+                ByteBuffer out = ByteBuffer.allocate(1 + stringLength(text));
+                out.put((byte) type.ordinal());
+                putString(out, text);
+                yield out.flip();
+            }
+            case MOVE_MADE -> ByteBuffer.allocate(1 + 4 + 4 + 8)
+                    .put((byte) type.ordinal())
+                    .putInt(message.getMove())
+                    .putInt(message.getPly())
+                    .putLong(message.getHash())
+                    .flip();
+        };
+    }
+
+    public static ServerMessage decodeMessage(ByteBuffer in) {
+        try {
+            var type = MESSAGE_TYPES[checkedType(in.get(), MESSAGE_TYPES.length)];
+            ServerMessage message = switch (type) {
+                case LOAD_GAME -> {
+                    int present = in.get();
+                    if (present == 0) {
+                        yield ServerMessage.loadGame(null);
+                    }
+                    if ((present & ~(HAS_GAME_DATA | HAS_CHESS_GAME)) != 0 || (present & HAS_GAME_DATA) == 0) {
+                        throw new IllegalArgumentException("Bad LOAD_GAME presence byte " + present);
+                    }
+                    int gameID = in.getInt();
+                    String white = getString(in);
+                    String black = getString(in);
+                    String name = getString(in);
+                    ChessGame chessGame = null;
+                    if ((present & HAS_CHESS_GAME) != 0) {
+                        byte[] game = new byte[GameCodec.LENGTH];
+                        in.get(game);
+                        chessGame = GameCodec.decode(game);
+                    }
+                    yield ServerMessage.loadGame(new GameData(gameID, white, black, name, chessGame));
+                }
+                case ERROR -> ServerMessage.error(getString(in));
+                case NOTIFICATION -> ServerMessage.notification(getString(in));
+                case MOVE_MADE -> ServerMessage.moveMade(checkedMove(in.getInt()), in.getInt(), in.getLong());
+            };
+            expectEnd(in);
+            return message;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Message is truncated", e);
+        }
+    }
+
+    private static int checkedType(byte type, int count) {
+        if (type < 0 || type >= count) {
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+        return type;
+    }
+
+    /**
+     * Squares always fit their 6 bits, so a move is malformed only if it
+     * carries flags or a promotion code past the last piece type
+     */
+    private static int checkedMove(int move) {
+        if (Moves.withoutFlags(move) != move || (move >>> PROMOTION_SHIFT) > PROMOTION_CODES) {
+            throw new IllegalArgumentException("Malformed move " + move);
+        }
+        return move;
+    }
+
+    private static void expectEnd(ByteBuffer in) {
+        if (in.hasRemaining()) {
+            throw new IllegalArgumentException(in.remaining() + " unexpected bytes at the end");
+        }
+    }
+
+    private static byte[] utf8(String text) {
+        if (text == null) {
+            return null;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= NULL_STRING) {
+            throw new IllegalArgumentException("String too long for the binary protocol");
+        }
+        return bytes;
+    }
+
+    private static int stringLength(byte[] bytes) {
+        return 2 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            out.putShort((short) NULL_STRING);
+        } else {
+            out.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = Short.toUnsignedInt(in.getShort());
+        if (length == NULL_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
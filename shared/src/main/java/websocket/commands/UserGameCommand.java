@@ -20,11 +20,24 @@ public class UserGameCommand {
 
     private final ChessMove move;
 
+    // Left out of the JSON unless set, so older clients keep getting LOAD_GAME
+    private final Boolean deltas;
+
     public UserGameCommand(CommandType commandType, String authToken, Integer gameID, ChessMove move) {
+        this(commandType, authToken, gameID, move, null);
+    }
+
+    /**
+     * @param deltas on CONNECT, true to be sent MOVE_MADE after each move
+     *               instead of the whole game
+     */
+    public UserGameCommand(CommandType commandType, String authToken, Integer gameID, ChessMove move,
+                           Boolean deltas) {
         this.commandType = commandType;
         this.authToken = authToken;
         this.gameID = gameID;
         this.move = move;
+        this.deltas = deltas;
     }
 
     public UserGameCommand(CommandType commandType, String authToken, Integer gameID) {
@@ -35,7 +48,12 @@ public class UserGameCommand {
         CONNECT,
         MAKE_MOVE,
         LEAVE,
-        RESIGN
+        RESIGN,
+        /**
+         * Asks for the whole game again, when a client's copy no longer
+         * matches the moves it is sent
+         */
+        RESYNC
     }
 
     public CommandType getCommandType() {
@@ -52,6 +70,10 @@ public class UserGameCommand {
 
     public ChessMove getMove() {return move;}
 
+    public boolean wantsDeltas() {
+        return Boolean.TRUE.equals(deltas);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
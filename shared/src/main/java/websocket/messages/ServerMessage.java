@@ -16,12 +16,21 @@ public class ServerMessage {
     public enum ServerMessageType {
         LOAD_GAME,
         ERROR,
-        NOTIFICATION
+        NOTIFICATION,
+        /**
+         * A move made on the game, sent in place of LOAD_GAME to sessions
+         * that asked for deltas when they connected
+         */
+        MOVE_MADE
     }
 
     private GameData game;
     private String errorMessage;
     private String message;
+    // Only set for MOVE_MADE
+    private Integer move;
+    private Integer ply;
+    private Long hash;
 
     public ServerMessage(ServerMessageType type) {
         this.serverMessageType = type;
@@ -37,6 +46,20 @@ public class ServerMessage {
         return msg;
     }
 
+    /**
+     * @param move the move, encoded with {@link chess.Moves}
+     * @param ply  the game's ply count after the move
+     * @param hash the Zobrist key of the position after the move, for the
+     *             receiver to check its copy of the game against
+     */
+    public static ServerMessage moveMade(int move, int ply, long hash) {
+        ServerMessage msg = new ServerMessage(ServerMessageType.MOVE_MADE);
+        msg.move = move;
+        msg.ply = ply;
+        msg.hash = hash;
+        return msg;
+    }
+
     public static ServerMessage error(String errorMessage) {
         ServerMessage msg = new ServerMessage(ServerMessageType.ERROR);
         msg.errorMessage = errorMessage;
@@ -49,6 +72,30 @@ public class ServerMessage {
         return msg;
     }
 
+    public GameData getGame() {
+        return game;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Integer getMove() {
+        return move;
+    }
+
+    public Integer getPly() {
+        return ply;
+    }
+
+    public Long getHash() {
+        return hash;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
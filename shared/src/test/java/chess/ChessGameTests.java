@@ -0,0 +1,29 @@
+package chess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class ChessGameTests {
+
+    @Test
+    @DisplayName("Game - Off-Board Moves Rejected")
+    public void offBoardMoves() {
+        ChessGame game = new ChessGame();
+        String start = game.toFen();
+        ChessPosition knight = new ChessPosition(1, 7);
+        // Each of these would pack into the on-board square of a legal knight move
+        ChessPosition[] offBoard = {
+                new ChessPosition(4, 0), new ChessPosition(0, 6), new ChessPosition(3, 9), new ChessPosition(9, 1)
+        };
+        for (ChessPosition end : offBoard) {
+            Assertions.assertThrows(InvalidMoveException.class, () -> game.makeMove(new ChessMove(knight, end, null)),
+                    "Move to " + end.getRow() + "," + end.getColumn() + " was accepted");
+        }
+        Assertions.assertThrows(InvalidMoveException.class,
+                () -> game.makeMove(new ChessMove(new ChessPosition(0, 7), new ChessPosition(3, 6), null)));
+        Assertions.assertEquals(start, game.toFen(), "Rejected moves changed the game");
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Moves.encode(new ChessMove(knight, new ChessPosition(4, 0), null)));
+    }
+}
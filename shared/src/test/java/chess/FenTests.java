@@ -0,0 +1,62 @@
+package chess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class FenTests {
+
+    @Test
+    @DisplayName("FEN - Start Position Matches New Game")
+    public void startPosition() {
+        ChessGame game = ChessGame.fromFen(Perft.START_FEN);
+        Assertions.assertEquals(new ChessGame(), game, "Start FEN did not load the starting game");
+        Assertions.assertEquals(Perft.START_FEN, new ChessGame().toFen(), "New game did not export the start FEN");
+    }
+
+    @Test
+    @DisplayName("FEN - Reference Positions Round Trip")
+    public void roundTrip() {
+        for (Perft.ReferencePosition position : Perft.REFERENCE_POSITIONS) {
+            Assertions.assertEquals(position.fen(), ChessGame.fromFen(position.fen()).toFen(),
+                    "Wrong FEN after loading " + position.name());
+        }
+    }
+
+    @Test
+    @DisplayName("FEN - Moves Update Every Field")
+    public void afterMoves() throws InvalidMoveException {
+        ChessGame game = new ChessGame();
+        game.makeMove(new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null));
+        Assertions.assertEquals("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1", game.toFen());
+        game.makeMove(new ChessMove(new ChessPosition(8, 7), new ChessPosition(6, 6), null));
+        game.makeMove(new ChessMove(new ChessPosition(1, 5), new ChessPosition(2, 5), null));
+        Assertions.assertEquals("rnbqkb1r/pppppppp/5n2/8/4P3/8/PPPPKPPP/RNBQ1BNR b kq - 2 2", game.toFen());
+        game.unmakeMove();
+        Assertions.assertEquals("rnbqkb1r/pppppppp/5n2/8/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 1 2", game.toFen());
+    }
+
+    @Test
+    @DisplayName("FEN - Board Placement Only")
+    public void boardPlacement() {
+        ChessBoard board = new ChessBoard();
+        board.resetBoard();
+        Assertions.assertEquals("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR", board.toFen());
+        Assertions.assertEquals(board, ChessBoard.fromFen(Perft.START_FEN), "Board did not load from a full FEN");
+    }
+
+    @Test
+    @DisplayName("FEN - Malformed Records Rejected")
+    public void malformed() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ChessGame.fromFen("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP w KQkq - 0 1"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ChessGame.fromFen("rnbqkbnr/ppppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ChessGame.fromFen("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR x KQkq - 0 1"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ChessGame.fromFen("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq e4 0 1"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ChessGame.fromFen("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w"));
+    }
+}
@@ -0,0 +1,46 @@
+package chess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class GameCodecTests {
+
+    @Test
+    @DisplayName("Codec - Reference Positions Round Trip")
+    public void roundTrip() {
+        for (Perft.ReferencePosition position : Perft.REFERENCE_POSITIONS) {
+            ChessGame game = ChessGame.fromFen(position.fen());
+            byte[] bytes = GameCodec.encode(game);
+            Assertions.assertEquals(GameCodec.LENGTH, bytes.length);
+            ChessGame decoded = GameCodec.decode(bytes);
+            Assertions.assertEquals(game, decoded, "Wrong game after decoding " + position.name());
+            Assertions.assertEquals(position.fen(), decoded.toFen(), "Wrong state after decoding " + position.name());
+        }
+    }
+
+    @Test
+    @DisplayName("Codec - En Passant and Game Over Kept")
+    public void gameState() throws InvalidMoveException {
+        ChessGame game = new ChessGame();
+        game.makeMove(new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null));
+        game.gameOver();
+        ChessGame decoded = GameCodec.decode(GameCodec.encode(game));
+        Assertions.assertEquals(game.toFen(), decoded.toFen());
+        Assertions.assertTrue(decoded.isOver(), "Decoded game was not over");
+    }
+
+    @Test
+    @DisplayName("Codec - Malformed Records Rejected")
+    public void malformed() {
+        byte[] bytes = GameCodec.encode(new ChessGame());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> GameCodec.decode(java.util.Arrays.copyOf(bytes, bytes.length - 1)));
+        byte[] badVersion = bytes.clone();
+        badVersion[0] = 2;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> GameCodec.decode(badVersion));
+        byte[] badPiece = bytes.clone();
+        badPiece[1] = (byte) 0xDD;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> GameCodec.decode(badPiece));
+    }
+}
@@ -0,0 +1,122 @@
+package chess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class GameStatusTests {
+
+    @Test
+    @DisplayName("Status - Checkmate")
+    public void checkmate() throws InvalidMoveException {
+        ChessGame game = foolsMate();
+        Assertions.assertEquals(ChessGame.GameStatus.CHECKMATE, game.getStatus());
+        Assertions.assertTrue(game.isInCheckmate(ChessGame.TeamColor.WHITE));
+    }
+
+    @Test
+    @DisplayName("Status - Stalemate")
+    public void stalemate() {
+        ChessGame game = ChessGame.fromFen("7k/5Q2/6K1/8/8/8/8/8 b - - 0 1");
+        Assertions.assertEquals(ChessGame.GameStatus.STALEMATE, game.getStatus());
+        Assertions.assertTrue(game.getStatus().isDraw());
+    }
+
+    @Test
+    @DisplayName("Status - Insufficient Material")
+    public void insufficientMaterial() {
+        Assertions.assertEquals(ChessGame.GameStatus.DRAW_INSUFFICIENT_MATERIAL,
+                ChessGame.fromFen("8/8/4k3/8/8/3BK3/8/8 w - - 0 1").getStatus());
+        Assertions.assertEquals(ChessGame.GameStatus.DRAW_INSUFFICIENT_MATERIAL,
+                ChessGame.fromFen("2b5/8/4k3/8/8/3BK3/8/8 w - - 0 1").getStatus(), "Same-colored bishops");
+        Assertions.assertEquals(ChessGame.GameStatus.ONGOING,
+                ChessGame.fromFen("8/2b5/4k3/8/8/3BK3/8/8 w - - 0 1").getStatus(), "Opposite-colored bishops");
+    }
+
+    @Test
+    @DisplayName("Status - Only Fivefold Repetition Ends the Game")
+    public void repetition() throws InvalidMoveException {
+        ChessGame game = new ChessGame();
+        String[] shuffle = {"g1f3", "g8f6", "f3g1", "f6g8"};
+        // The start position comes back after every shuffle; its fifth occurrence is after the fourth
+        for (int round = 1; round <= 4; round++) {
+            Assertions.assertEquals(ChessGame.GameStatus.ONGOING, game.getStatus(),
+                    "Game ended before occurrence " + round);
+            for (String move : shuffle) {
+                move(game, move);
+            }
+        }
+        Assertions.assertEquals(ChessGame.GameStatus.DRAW_REPETITION, game.getStatus());
+    }
+
+    @Test
+    @DisplayName("Status - Only the 75-Move Rule Ends the Game")
+    public void seventyFiveMoves() throws InvalidMoveException {
+        ChessGame fifty = ChessGame.fromFen("4k3/8/8/8/8/8/8/R3K3 w - - 99 80");
+        move(fifty, "a1a2");
+        Assertions.assertEquals(ChessGame.GameStatus.ONGOING, fifty.getStatus(), "Fifty-move draw must be claimed");
+
+        ChessGame seventyFive = ChessGame.fromFen("4k3/8/8/8/8/8/8/R3K3 w - - 149 100");
+        move(seventyFive, "a1a2");
+        Assertions.assertEquals(ChessGame.GameStatus.DRAW_SEVENTY_FIVE_MOVE, seventyFive.getStatus());
+    }
+
+    @Test
+    @DisplayName("Status - Recomputed After Undo and New Board")
+    public void cacheInvalidation() throws InvalidMoveException {
+        ChessGame game = foolsMate();
+        Assertions.assertEquals(ChessGame.GameStatus.CHECKMATE, game.getStatus());
+        game.unmakeMove();
+        Assertions.assertEquals(ChessGame.GameStatus.ONGOING, game.getStatus());
+        move(game, "d8h4");
+        Assertions.assertEquals(ChessGame.GameStatus.CHECKMATE, game.getStatus());
+
+        ChessBoard board = new ChessBoard();
+        board.resetBoard();
+        game.setBoard(board);
+        game.setTeamTurn(ChessGame.TeamColor.WHITE);
+        Assertions.assertEquals(ChessGame.GameStatus.ONGOING, game.getStatus());
+    }
+
+    @Test
+    @DisplayName("Status - Recomputed After Undo and Transposition")
+    public void transposition() throws InvalidMoveException {
+        ChessGame game = new ChessGame();
+        String[] shuffle = {"g1f3", "g8f6", "f3g1", "f6g8"};
+        for (int round = 0; round < 4; round++) {
+            for (String move : shuffle) {
+                move(game, move);
+            }
+        }
+        Assertions.assertEquals(ChessGame.GameStatus.DRAW_REPETITION, game.getStatus());
+
+        // Back to the start, then to the same position at the same depth by a
+        // longer tour that only passes through it twice on the way
+        for (int ply = 0; ply < 16; ply++) {
+            game.unmakeMove();
+        }
+        String[] tour = {"g1f3", "g8f6", "f3g5", "f6g4", "g5f3", "g4f6", "f3g1", "f6g8"};
+        for (int round = 0; round < 2; round++) {
+            for (String move : tour) {
+                move(game, move);
+            }
+        }
+        Assertions.assertEquals(16, game.getPly());
+        Assertions.assertEquals(ChessGame.GameStatus.ONGOING, game.getStatus(),
+                "Status of the earlier path came back after a transposition");
+    }
+
+    private static ChessGame foolsMate() throws InvalidMoveException {
+        ChessGame game = new ChessGame();
+        for (String move : new String[]{"f2f3", "e7e5", "g2g4", "d8h4"}) {
+            move(game, move);
+        }
+        return game;
+    }
+
+    private static void move(ChessGame game, String move) throws InvalidMoveException {
+        game.makeMove(new ChessMove(
+                new ChessPosition(move.charAt(1) - '0', move.charAt(0) - 'a' + 1),
+                new ChessPosition(move.charAt(3) - '0', move.charAt(2) - 'a' + 1), null));
+    }
+}
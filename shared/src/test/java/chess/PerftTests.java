@@ -0,0 +1,80 @@
+package chess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class PerftTests {
+
+    private static void assertPerft(String name, int maxDepth) {
+        for (Perft.ReferencePosition position : Perft.REFERENCE_POSITIONS) {
+            if (position.name().equals(name)) {
+                for (int depth = 1; depth <= maxDepth; depth++) {
+                    Assertions.assertEquals(position.expected()[depth - 1], Perft.perft(ChessGame.fromFen(position.fen()), depth),
+                            "Wrong node count for " + name + " at depth " + depth);
+                }
+                return;
+            }
+        }
+        Assertions.fail("No reference position named " + name);
+    }
+
+    @Test
+    @DisplayName("Perft - Depths Below the Minimum Rejected")
+    public void badDepths() {
+        ChessGame game = new ChessGame();
+        Assertions.assertEquals(1, Perft.perft(game, 0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Perft.perft(game, -1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Perft.divide(game, 0));
+        Assertions.assertEquals(20, Perft.divide(game, 1).size());
+    }
+
+    @Test
+    @DisplayName("Perft - Start Position")
+    public void startPosition() {
+        assertPerft("start", 4);
+    }
+
+    @Test
+    @DisplayName("Perft - Kiwipete")
+    public void kiwipete() {
+        assertPerft("kiwipete", 3);
+    }
+
+    @Test
+    @DisplayName("Perft - Position 3")
+    public void position3() {
+        assertPerft("position 3", 4);
+    }
+
+    @Test
+    @DisplayName("Perft - Position 4")
+    public void position4() {
+        assertPerft("position 4", 3);
+    }
+
+    @Test
+    @DisplayName("Perft - Position 5")
+    public void position5() {
+        assertPerft("position 5", 3);
+    }
+
+    @Test
+    @DisplayName("Perft - Position 6")
+    public void position6() {
+        assertPerft("position 6", 3);
+    }
+
+    @Test
+    @DisplayName("Divide - Totals Match Perft")
+    public void divideMatchesPerft() {
+        ChessGame game = ChessGame.fromFen(Perft.START_FEN);
+        long total = 0;
+        for (Perft.DivideEntry entry : Perft.divide(game, 3)) {
+            total += entry.nodes();
+        }
+        Assertions.assertEquals(20, Perft.divide(game, 3).size(), "Wrong number of root moves");
+        Assertions.assertEquals(Perft.perft(game, 3), total, "Divide counts did not add up to the perft total");
+        Assertions.assertEquals(new ChessGame(), game, "Perft left the game changed");
+    }
+}
@@ -0,0 +1,103 @@
+package websocket;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import chess.ChessPiece;
+import chess.ChessPosition;
+import chess.Moves;
+import model.GameData;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import websocket.commands.UserGameCommand;
+import websocket.messages.ServerMessage;
+
+import java.nio.ByteBuffer;
+
+public class BinaryProtocolTests {
+
+    @Test
+    @DisplayName("Binary - Commands Round Trip")
+    public void commands() {
+        var move = new ChessMove(new ChessPosition(7, 1), new ChessPosition(8, 1), ChessPiece.PieceType.KNIGHT);
+        var makeMove = new UserGameCommand(UserGameCommand.CommandType.MAKE_MOVE, "token", 12, move);
+        var decoded = BinaryProtocol.decodeCommand(BinaryProtocol.encode(makeMove));
+        Assertions.assertEquals(makeMove, decoded);
+        Assertions.assertEquals(move, decoded.getMove());
+        Assertions.assertFalse(decoded.wantsDeltas());
+
+        var connect = new UserGameCommand(UserGameCommand.CommandType.CONNECT, "tökén", 3, null, true);
+        decoded = BinaryProtocol.decodeCommand(BinaryProtocol.encode(connect));
+        Assertions.assertEquals(connect, decoded);
+        Assertions.assertNull(decoded.getMove());
+        Assertions.assertTrue(decoded.wantsDeltas());
+    }
+
+    @Test
+    @DisplayName("Binary - Messages Round Trip")
+    public void messages() {
+        var game = new ChessGame();
+        var loadGame = ServerMessage.loadGame(new GameData(5, "white", null, "game", game));
+        var decoded = BinaryProtocol.decodeMessage(BinaryProtocol.encode(loadGame));
+        Assertions.assertEquals(loadGame.getGame(), decoded.getGame());
+
+        var noGame = BinaryProtocol.decodeMessage(BinaryProtocol.encode(ServerMessage.loadGame(null)));
+        Assertions.assertEquals(ServerMessage.ServerMessageType.LOAD_GAME, noGame.getServerMessageType());
+        Assertions.assertNull(noGame.getGame());
+
+        var noBoard = ServerMessage.loadGame(new GameData(6, null, "black", "game", null));
+        Assertions.assertEquals(noBoard.getGame(), BinaryProtocol.decodeMessage(BinaryProtocol.encode(noBoard)).getGame());
+
+        var error = BinaryProtocol.decodeMessage(BinaryProtocol.encode(ServerMessage.error("Error: bad")));
+        Assertions.assertEquals("Error: bad", error.getErrorMessage());
+
+        var note = BinaryProtocol.decodeMessage(BinaryProtocol.encode(ServerMessage.notification("hello")));
+        Assertions.assertEquals("hello", note.getMessage());
+
+        var delta = BinaryProtocol.decodeMessage(BinaryProtocol.encode(ServerMessage.moveMade(1234, 7, -42L)));
+        Assertions.assertEquals(ServerMessage.ServerMessageType.MOVE_MADE, delta.getServerMessageType());
+        Assertions.assertEquals(1234, delta.getMove());
+        Assertions.assertEquals(7, delta.getPly());
+        Assertions.assertEquals(-42L, delta.getHash());
+    }
+
+    @Test
+    @DisplayName("Binary - Malformed Frames Rejected")
+    public void malformed() {
+        var command = new UserGameCommand(UserGameCommand.CommandType.LEAVE, "token", 1);
+        byte[] bytes = BinaryProtocol.encode(command).array();
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BinaryProtocol.decodeCommand(ByteBuffer.wrap(bytes, 0, bytes.length - 1)));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BinaryProtocol.decodeCommand(ByteBuffer.wrap(java.util.Arrays.copyOf(bytes, bytes.length + 1))));
+        byte[] badType = bytes.clone();
+        badType[0] = 100;
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BinaryProtocol.decodeCommand(ByteBuffer.wrap(badType)));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BinaryProtocol.decodeMessage(ByteBuffer.wrap(new byte[0])));
+    }
+
+    @Test
+    @DisplayName("Binary - Malformed Moves Rejected")
+    public void malformedMoves() {
+        var move = new ChessMove(new ChessPosition(7, 1), new ChessPosition(8, 1), ChessPiece.PieceType.QUEEN);
+        var command = new UserGameCommand(UserGameCommand.CommandType.MAKE_MOVE, "token", 1, move);
+        byte[] bytes = BinaryProtocol.encode(command).array();
+        // Promotion code 7 names no piece type
+        int badPromotion = Moves.encode(move) | (7 << 12);
+        // Flags are never sent
+        int flagged = Moves.encode(move) | Moves.CAPTURE;
+        for (int bad : new int[]{badPromotion, flagged, Integer.MIN_VALUE}) {
+            byte[] frame = bytes.clone();
+            ByteBuffer.wrap(frame).putInt(5, bad);
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> BinaryProtocol.decodeCommand(ByteBuffer.wrap(frame)), "Accepted move " + bad);
+        }
+
+        byte[] delta = BinaryProtocol.encode(ServerMessage.moveMade(Moves.encode(move), 1, 0)).array();
+        ByteBuffer.wrap(delta).putInt(1, badPromotion);
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BinaryProtocol.decodeMessage(ByteBuffer.wrap(delta)));
+    }
+}